@@ -1,13 +1,16 @@
 package com.github.calendar;
 
 import android.content.Context;
-import android.support.v4.util.Pools;
+import android.support.v4.util.LruCache;
 import android.text.format.DateUtils;
 
 import java.util.Calendar;
-import java.util.GregorianCalendar;
-import java.util.TimeZone;
+import java.util.Locale;
 
+/**
+ * Date helpers on top of {@link EpochDay}. Formatted strings are cached by local day,
+ * month and minute of day. All helpers may be called from any thread.
+ */
 public class CalendarUtils {
 
     public static final long NO_TIME_MILLIS = -1;
@@ -16,219 +19,161 @@ public class CalendarUtils {
 
     public static final String PREF_CALENDAR_EXCLUSIONS = "calendarExclusions";
 
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+    private static final long DAY_MILLIS = 24 * 60 * MINUTE_MILLIS;
+
+    // more than the agenda window, so that scrolling back and forth never formats twice
+    private static final LruCache<Integer, String> sDayStrings = new LruCache<>(128);
+    private static final LruCache<Integer, String> sMonthStrings = new LruCache<>(24);
+    private static final LruCache<Integer, String> sTimeStrings = new LruCache<>(96);
+    private static volatile Locale sLocale;
+
     public static boolean isNotTime(long timeMillis) {
         return timeMillis == NO_TIME_MILLIS;
     }
 
     public static long today() {
-        DateOnlyCalendar calendar = DateOnlyCalendar.today();
-        long timeMillis = calendar.getTimeInMillis();
-        calendar.recycle();
-        return timeMillis;
+        return EpochDay.toMillis(EpochDay.fromMillis(System.currentTimeMillis()));
     }
 
     public static String toDayString(Context context, long timeMillis) {
-        return DateUtils.formatDateTime(context, timeMillis,
-                DateUtils.FORMAT_SHOW_WEEKDAY |
-                        DateUtils.FORMAT_SHOW_DATE |
-                        DateUtils.FORMAT_NO_YEAR);
+        checkLocale();
+        int day = EpochDay.fromMillis(timeMillis);
+        String dayString = sDayStrings.get(day);
+        if (dayString == null) {
+            dayString = DateUtils.formatDateTime(context, timeMillis,
+                    DateUtils.FORMAT_SHOW_WEEKDAY |
+                            DateUtils.FORMAT_SHOW_DATE |
+                            DateUtils.FORMAT_NO_YEAR);
+            sDayStrings.put(day, dayString);
+        }
+        return dayString;
     }
 
     public static String toMonthString(Context context, long timeMillis) {
-        return DateUtils.formatDateRange(context, timeMillis, timeMillis,
-                DateUtils.FORMAT_SHOW_DATE |
-                        DateUtils.FORMAT_NO_MONTH_DAY |
-                        DateUtils.FORMAT_SHOW_YEAR);
+        checkLocale();
+        int month = monthIndex(timeMillis);
+        String monthString = sMonthStrings.get(month);
+        if (monthString == null) {
+            monthString = DateUtils.formatDateRange(context, timeMillis, timeMillis,
+                    DateUtils.FORMAT_SHOW_DATE |
+                            DateUtils.FORMAT_NO_MONTH_DAY |
+                            DateUtils.FORMAT_SHOW_YEAR);
+            sMonthStrings.put(month, monthString);
+        }
+        return monthString;
     }
 
     public static String toTimeString(Context context, long timeMillis) {
-        return DateUtils.formatDateTime(context, timeMillis, DateUtils.FORMAT_SHOW_TIME);
+        checkLocale();
+        long localMillis = (timeMillis + EpochDay.offset(timeMillis)) % DAY_MILLIS;
+        int minute = (int) ((localMillis < 0 ? localMillis + DAY_MILLIS : localMillis) /
+                MINUTE_MILLIS);
+        String timeString = sTimeStrings.get(minute);
+        if (timeString == null) {
+            timeString = DateUtils.formatDateTime(context, timeMillis,
+                    DateUtils.FORMAT_SHOW_TIME);
+            sTimeStrings.put(minute, timeString);
+        }
+        return timeString;
+    }
+
+    /**
+     * Drops cached strings after the locale, time zone or 12/24 hour setting changed.
+     */
+    public static void invalidateFormats() {
+        sDayStrings.evictAll();
+        sMonthStrings.evictAll();
+        sTimeStrings.evictAll();
     }
 
     public static boolean sameMonth(long first, long second) {
         if (isNotTime(first) || isNotTime(second)) {
             return false;
         }
-        DateOnlyCalendar firstCalendar = DateOnlyCalendar.fromTime(first);
-        DateOnlyCalendar secondCalendar = DateOnlyCalendar.fromTime(second);
-        boolean same = firstCalendar.sameMonth(secondCalendar);
-        firstCalendar.recycle();
-        secondCalendar.recycle();
-        return same;
+        return monthIndex(first) == monthIndex(second);
     }
 
     public static int dayOfMonth(long timeMillis) {
         if (isNotTime(timeMillis)) {
             return -1;
         }
-        DateOnlyCalendar calendar = DateOnlyCalendar.fromTime(timeMillis);
-
-        int day = calendar.get(Calendar.DAY_OF_MONTH);
-        calendar.recycle();
-        return day;
+        return EpochDay.dayOfMonth(EpochDay.fromMillis(timeMillis));
     }
 
     public static boolean monthBefore(long first, long second) {
         if (isNotTime(first) || isNotTime(second)) {
             return false;
         }
-        DateOnlyCalendar firstCalendar = DateOnlyCalendar.fromTime(first);
-        DateOnlyCalendar secondCalendar = DateOnlyCalendar.fromTime(second);
-        boolean before = firstCalendar.monthBefore(secondCalendar);
-        firstCalendar.recycle();
-        secondCalendar.recycle();
-        return before;
+        return monthIndex(first) < monthIndex(second);
     }
 
     public static boolean monthAfter(long first, long second) {
         if (isNotTime(first) || isNotTime(second)) {
             return false;
         }
-        DateOnlyCalendar firstCalendar = DateOnlyCalendar.fromTime(first);
-        DateOnlyCalendar secondCalendar = DateOnlyCalendar.fromTime(second);
-        boolean after = firstCalendar.monthAfter(secondCalendar);
-        firstCalendar.recycle();
-        secondCalendar.recycle();
-        return after;
+        return monthIndex(first) > monthIndex(second);
+    }
+
+    public static long addDays(long dayMillis, int days) {
+        if (isNotTime(dayMillis)) {
+            return NO_TIME_MILLIS;
+        }
+        return EpochDay.toMillis(EpochDay.fromMillis(dayMillis) + days);
+    }
+
+    public static int daysBetween(long fromMillis, long toMillis) {
+        return EpochDay.fromMillis(toMillis) - EpochDay.fromMillis(fromMillis);
     }
 
     public static long addMonths(long timeMillis, int months) {
         if (isNotTime(timeMillis)) {
             return NO_TIME_MILLIS;
         }
-        DateOnlyCalendar calendar = DateOnlyCalendar.fromTime(timeMillis);
-
-        calendar.add(Calendar.MONTH, months);
-        long result = calendar.getTimeInMillis();
-        calendar.recycle();
-        return result;
+        return EpochDay.toMillis(EpochDay.addMonths(EpochDay.fromMillis(timeMillis), months));
     }
 
     public static long monthFirstDay(long monthMillis) {
         if (isNotTime(monthMillis)) {
             return NO_TIME_MILLIS;
         }
-        DateOnlyCalendar calendar = DateOnlyCalendar.fromTime(monthMillis);
-
-        calendar.set(Calendar.DAY_OF_MONTH, 1);
-        long result = calendar.getTimeInMillis();
-        calendar.recycle();
-        return result;
+        return EpochDay.toMillis(EpochDay.monthFirstDay(EpochDay.fromMillis(monthMillis)));
     }
 
     public static int monthSize(long monthMillis) {
         if (isNotTime(monthMillis)) {
             return 0;
         }
-        DateOnlyCalendar calendar = DateOnlyCalendar.fromTime(monthMillis);
-
-        int size = calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
-        calendar.recycle();
-        return size;
+        return EpochDay.monthSize(EpochDay.fromMillis(monthMillis));
     }
 
     public static int monthFirstDayOffset(long monthMillis) {
         if (isNotTime(monthMillis)) {
             return 0;
         }
-        DateOnlyCalendar calendar = DateOnlyCalendar.fromTime(monthMillis);
-
-        int offset = calendar.get(Calendar.DAY_OF_WEEK) - calendar.getFirstDayOfWeek();
-        if (offset < 0) {
-            offset = 7 + offset;
-        }
-        calendar.recycle();
-        return offset;
+        return EpochDay.dayOfWeek(EpochDay.fromMillis(monthMillis)) - Calendar.SUNDAY;
     }
 
     public static long toLocalTimeZone(long utcTimeMillis) {
-        return convertTimeZone(TimeZone.getTimeZone(TIMEZONE_UTC), TimeZone.getDefault(),
-                utcTimeMillis);
+        // the local instant showing the same wall clock time as utcTimeMillis in UTC
+        int offset = EpochDay.offset(utcTimeMillis - EpochDay.offset(utcTimeMillis));
+        return utcTimeMillis - offset;
     }
 
     public static long toUtcTimeZone(long localTimeMillis) {
-        return convertTimeZone(TimeZone.getDefault(), TimeZone.getTimeZone(TIMEZONE_UTC),
-                localTimeMillis);
+        return localTimeMillis + EpochDay.offset(localTimeMillis);
     }
 
-    private static long convertTimeZone(TimeZone fromTimeZone, TimeZone toTimeZone, long timeMillis) {
-        DateOnlyCalendar fromCalendar = DateOnlyCalendar.obtain();
-        fromCalendar.setTimeZone(fromTimeZone);
-        fromCalendar.setTimeInMillis(timeMillis);
-        DateOnlyCalendar toCalendar = DateOnlyCalendar.obtain();
-        toCalendar.setTimeZone(toTimeZone);
-        toCalendar.set(fromCalendar.get(Calendar.YEAR),
-                fromCalendar.get(Calendar.MONTH),
-                fromCalendar.get(Calendar.DAY_OF_MONTH),
-                fromCalendar.get(Calendar.HOUR_OF_DAY),
-                fromCalendar.get(Calendar.MINUTE),
-                fromCalendar.get(Calendar.SECOND));
-        long localTimeMillis = toCalendar.getTimeInMillis();
-        fromCalendar.recycle();
-        toCalendar.recycle();
-        return localTimeMillis;
-
-    }
-
-    private static class DateOnlyCalendar extends GregorianCalendar {
-
-        private static Pools.SimplePool<DateOnlyCalendar> sPools = new Pools.SimplePool<>(5);
-
-        private static DateOnlyCalendar obtain() {
-            DateOnlyCalendar instance = sPools.acquire();
-            return instance == null ? new DateOnlyCalendar() : instance;
-        }
-
-        public static DateOnlyCalendar today() {
-            return fromTime(System.currentTimeMillis());
-        }
-
-        public static DateOnlyCalendar fromTime(long timeMillis) {
-            if (timeMillis < 0) {
-                return null;
-            }
-            DateOnlyCalendar dateOnlyCalendar = DateOnlyCalendar.obtain();
-            dateOnlyCalendar.setTimeInMillis(timeMillis);
-            dateOnlyCalendar.stripTime();
-
-            dateOnlyCalendar.setFirstDayOfWeek(Calendar.SUNDAY);
-            return dateOnlyCalendar;
-        }
-
-        private DateOnlyCalendar() {
-            super();
-        }
-
-        public boolean monthBefore(DateOnlyCalendar other) {
-            int day = other.get(DAY_OF_MONTH);
-            other.set(DAY_OF_MONTH, 1);
-            boolean before = getTimeInMillis() < other.getTimeInMillis();
-            other.set(DAY_OF_MONTH, day);
-            return before;
-        }
-
-        public boolean monthAfter(DateOnlyCalendar other) {
-            int day = other.get(DAY_OF_MONTH);
-            other.set(DAY_OF_MONTH, other.getActualMaximum(DAY_OF_MONTH));
-            boolean after = getTimeInMillis() > other.getTimeInMillis();
-            other.set(DAY_OF_MONTH, day);
-            return after;
-        }
-
-        public boolean sameMonth(DateOnlyCalendar other) {
-            return get(YEAR) == other.get(YEAR) && get(MONTH) == other.get(MONTH);
-        }
-
-        void stripTime() {
-            set(Calendar.HOUR_OF_DAY, 0);
-            set(Calendar.MINUTE, 0);
-            set(Calendar.SECOND, 0);
-            set(Calendar.MILLISECOND, 0);
+    // the receiver only lives with the activity, so a changed locale is also checked here
+    private static void checkLocale() {
+        Locale locale = Locale.getDefault();
+        if (locale != sLocale) {
+            sLocale = locale;
+            invalidateFormats();
         }
+    }
 
-        void recycle() {
-            setTimeZone(TimeZone.getDefault());
-            sPools.release(this);
-        }
+    private static int monthIndex(long timeMillis) {
+        return EpochDay.monthIndex(EpochDay.fromMillis(timeMillis));
     }
 }
@@ -0,0 +1,236 @@
+package com.github.calendar;
+
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Date arithmetic on days counted from 1970-01-01 in the default time zone, without
+ * {@link java.util.Calendar} instances. Months are 0-based, like {@link java.util.Calendar}.
+ * All methods are thread safe and may be called from worker threads.
+ */
+public final class EpochDay {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+    private static final int DAYS_PER_ERA = 146097;
+    private static final int ZONE_CHECK_MILLIS = 60 * 1000;
+    private static final int OFFSET_CACHE_SIZE = 64;
+
+    // days before each month, counted from March so that leap days come last
+    private static final int[] DAYS_BEFORE_MONTH_FROM_MARCH =
+            {0, 31, 61, 92, 122, 153, 184, 214, 245, 275, 306, 337};
+    private static final int[] MONTH_SIZE = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private static volatile Zone sZone;
+
+    private EpochDay() {
+    }
+
+    /**
+     * Returns the local day containing {@code timeMillis}.
+     */
+    public static int fromMillis(long timeMillis) {
+        return (int) floorDiv(timeMillis + zone().mTimeZone.getOffset(timeMillis), DAY_MILLIS);
+    }
+
+    /**
+     * Returns the first instant of local day {@code epochDay}, which is midnight unless a
+     * daylight saving transition skips it.
+     */
+    public static long toMillis(int epochDay) {
+        Zone zone = zone();
+        int slot = floorMod(epochDay, OFFSET_CACHE_SIZE);
+        long wallMillis = epochDay * DAY_MILLIS;
+        // day and offset share one entry so that readers never see a torn pair
+        long entry = zone.mMidnightOffsets.get(slot);
+        if (entry != Zone.NO_ENTRY && (int) (entry >> 32) == epochDay) {
+            return wallMillis - (int) entry;
+        }
+        TimeZone timeZone = zone.mTimeZone;
+        long utcMillis = wallMillis - timeZone.getRawOffset();
+        // transitions are far apart, so midnight has one of the offsets around it
+        int before = timeZone.getOffset(utcMillis - DAY_MILLIS / 2),
+                after = timeZone.getOffset(utcMillis + DAY_MILLIS / 2);
+        int offset;
+        if (timeZone.getOffset(wallMillis - before) == before) {
+            offset = before;
+        } else if (timeZone.getOffset(wallMillis - after) == after) {
+            offset = after;
+        } else {
+            // midnight is skipped, the day starts at the transition
+            offset = Math.min(before, after);
+        }
+        zone.mMidnightOffsets.set(slot, ((long) epochDay << 32) | (offset & 0xffffffffL));
+        return wallMillis - offset;
+    }
+
+    public static int of(int year, int month, int dayOfMonth) {
+        int marchYear = month < 2 ? year - 1 : year;
+        int era = floorDiv(marchYear, 400);
+        int yearOfEra = marchYear - era * 400;
+        int dayOfYear = DAYS_BEFORE_MONTH_FROM_MARCH[(month + 10) % 12] + dayOfMonth - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * DAYS_PER_ERA + dayOfEra - 719468;
+    }
+
+    public static int year(int epochDay) {
+        int dayOfEra = dayOfEra(epochDay), yearOfEra = yearOfEra(dayOfEra);
+        int year = yearOfEra + era(epochDay) * 400;
+        return marchMonth(dayOfEra, yearOfEra) >= 10 ? year + 1 : year;
+    }
+
+    public static int month(int epochDay) {
+        int dayOfEra = dayOfEra(epochDay);
+        return (marchMonth(dayOfEra, yearOfEra(dayOfEra)) + 2) % 12;
+    }
+
+    public static int dayOfMonth(int epochDay) {
+        int dayOfEra = dayOfEra(epochDay), yearOfEra = yearOfEra(dayOfEra);
+        int dayOfYear = dayOfYear(dayOfEra, yearOfEra);
+        return dayOfYear - DAYS_BEFORE_MONTH_FROM_MARCH[marchMonth(dayOfEra, yearOfEra)] + 1;
+    }
+
+    /**
+     * Returns the day of week as a {@link java.util.Calendar#SUNDAY}-based constant.
+     */
+    public static int dayOfWeek(int epochDay) {
+        // 1970-01-01 was a Thursday
+        return floorMod(epochDay + 4, 7) + 1;
+    }
+
+    /**
+     * Returns a month counter that increases by one from each month to the next.
+     */
+    public static int monthIndex(int epochDay) {
+        return year(epochDay) * 12 + month(epochDay);
+    }
+
+    public static int monthFirstDay(int epochDay) {
+        return epochDay - dayOfMonth(epochDay) + 1;
+    }
+
+    public static int monthSize(int epochDay) {
+        return monthSize(year(epochDay), month(epochDay));
+    }
+
+    public static int monthSize(int year, int month) {
+        if (month == 1 && isLeapYear(year)) {
+            return 29;
+        }
+        return MONTH_SIZE[month];
+    }
+
+    /**
+     * Moves by whole months, keeping the day of month unless the target month is shorter.
+     */
+    public static int addMonths(int epochDay, int months) {
+        int index = monthIndex(epochDay) + months;
+        int year = floorDiv(index, 12), month = floorMod(index, 12);
+        return of(year, month, Math.min(dayOfMonth(epochDay), monthSize(year, month)));
+    }
+
+    /**
+     * Returns the local wall clock minute of the day at {@code timeMillis}, which differs
+     * from the minutes elapsed since the day started on daylight saving transition days.
+     */
+    public static int minuteOfDay(long timeMillis) {
+        long wallMillis = timeMillis + zone().mTimeZone.getOffset(timeMillis);
+        return (int) ((wallMillis - floorDiv(wallMillis, DAY_MILLIS) * DAY_MILLIS) /
+                MINUTE_MILLIS);
+    }
+
+    /**
+     * Returns the offset of the default time zone from UTC at {@code timeMillis}.
+     */
+    public static int offset(long timeMillis) {
+        return zone().mTimeZone.getOffset(timeMillis);
+    }
+
+    /**
+     * Makes the next call pick up the current default time zone.
+     */
+    public static void invalidateTimeZone() {
+        sZone = null;
+    }
+
+    static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static Zone zone() {
+        Zone zone = sZone;
+        long now = System.currentTimeMillis();
+        if (zone == null || now - zone.mCheckedMillis > ZONE_CHECK_MILLIS ||
+                now < zone.mCheckedMillis) {
+            // racing threads may each publish a snapshot, any of them is current
+            TimeZone timeZone = TimeZone.getDefault();
+            zone = zone != null && zone.mTimeZone.hasSameRules(timeZone) ?
+                    new Zone(zone.mTimeZone, now, zone.mMidnightOffsets) :
+                    new Zone(timeZone, now, Zone.newMidnightOffsets());
+            sZone = zone;
+        }
+        return zone;
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        return (dividend % divisor != 0 && (dividend < 0) != (divisor < 0)) ?
+                quotient - 1 : quotient;
+    }
+
+    private static int floorDiv(int dividend, int divisor) {
+        return (int) floorDiv((long) dividend, (long) divisor);
+    }
+
+    private static int floorMod(int dividend, int divisor) {
+        return dividend - floorDiv(dividend, divisor) * divisor;
+    }
+
+    private static int era(int epochDay) {
+        return floorDiv(epochDay + 719468, DAYS_PER_ERA);
+    }
+
+    private static int dayOfEra(int epochDay) {
+        return epochDay + 719468 - era(epochDay) * DAYS_PER_ERA;
+    }
+
+    private static int yearOfEra(int dayOfEra) {
+        return (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    }
+
+    private static int dayOfYear(int dayOfEra, int yearOfEra) {
+        return dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    }
+
+    private static int marchMonth(int dayOfEra, int yearOfEra) {
+        int dayOfYear = dayOfYear(dayOfEra, yearOfEra);
+        return (5 * dayOfYear + 2) / 153;
+    }
+
+    /**
+     * Immutable snapshot of the default time zone, shared by all threads. The zone is a
+     * private copy that is only read, and offsets are cached at local midnight of
+     * recently used days, direct mapped by day.
+     */
+    private static final class Zone {
+        static final long NO_ENTRY = Long.MIN_VALUE;
+
+        final TimeZone mTimeZone;
+        final long mCheckedMillis;
+        final AtomicLongArray mMidnightOffsets;
+
+        Zone(TimeZone timeZone, long checkedMillis, AtomicLongArray midnightOffsets) {
+            mTimeZone = timeZone;
+            mCheckedMillis = checkedMillis;
+            mMidnightOffsets = midnightOffsets;
+        }
+
+        static AtomicLongArray newMidnightOffsets() {
+            AtomicLongArray offsets = new AtomicLongArray(OFFSET_CACHE_SIZE);
+            for (int i = 0; i < OFFSET_CACHE_SIZE; i++) {
+                offsets.set(i, NO_ENTRY);
+            }
+            return offsets;
+        }
+    }
+}
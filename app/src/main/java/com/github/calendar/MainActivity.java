@@ -2,10 +2,12 @@ package com.github.calendar;
 
 import android.Manifest;
 import android.content.AsyncQueryHandler;
+import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
@@ -16,15 +18,14 @@ import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v4.util.Pair;
 import android.support.v4.widget.DrawerLayout;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.ActionBarDrawerToggle;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.text.TextUtils;
-import android.text.format.DateUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -36,17 +37,23 @@ import java.util.Collection;
 import java.util.HashSet;
 
 import com.github.calendar.content.CalendarCursor;
-import com.github.calendar.content.EventCursor;
+import com.github.calendar.content.EventIndex;
+import com.github.calendar.content.EventSnapshot;
+import com.github.calendar.content.EventSnapshotFile;
 import com.github.calendar.content.EventsQueryHandler;
+import com.github.calendar.content.MeasuredCursorLoader;
+import com.github.calendar.content.QueryMetrics;
 import com.github.calendar.weather.WeatherService;
 import com.github.calendar.widget.AgendaAdapter;
 import com.github.calendar.widget.AgendaView;
 import com.github.calendar.widget.CalendarSelectionView;
 import com.github.calendar.widget.EventCalendarView;
+import com.github.calendar.widget.WeekView;
 
 public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
     private static final String STATE_TOOLBAR_TOGGLE = "state:toolbarToggle";
+    private static final String STATE_WEEK_VIEW = "state:weekView";
     private static final int REQUEST_CODE_CALENDAR = 0;
     private static final int REQUEST_CODE_LOCATION = 1;
     private static final String SEPARATOR = ",";
@@ -73,8 +80,17 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             } else {
                 mExcludedCalendarIds.remove(String.valueOf(id));
             }
-            mCalendarView.invalidateData();
-            mAgendaView.invalidateData();
+            EventsQueryHandler.invalidateSelection();
+            EventIndex.getInstance().invalidate();
+        }
+    };
+    private final BroadcastReceiver mTimeChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_TIMEZONE_CHANGED.equals(intent.getAction())) {
+                EpochDay.invalidateTimeZone();
+            }
+            CalendarUtils.invalidateFormats();
         }
     };
     private final Coordinator mCoordinator = new Coordinator();
@@ -82,6 +98,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     private CheckedTextView mToolbarToggle;
     private EventCalendarView mCalendarView;
     private AgendaView mAgendaView;
+    private WeekView mWeekView;
     private FloatingActionButton mFabAdd;
     private CalendarSelectionView mCalendarSelectionView;
     private ActionBarDrawerToggle mDrawerToggle;
@@ -100,6 +117,11 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         getSupportActionBar().setDisplayOptions(
                 ActionBar.DISPLAY_SHOW_HOME | ActionBar.DISPLAY_HOME_AS_UP);
         setUpContentView();
+        IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        // also sent when the 12/24 hour setting changes
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        registerReceiver(mTimeChangeReceiver, filter);
     }
 
     @Override
@@ -112,13 +134,14 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 toggleButton.performClick();
             }
         }
+        toggleWeekView(savedInstanceState.getBoolean(STATE_WEEK_VIEW, false));
     }
 
     @Override
     protected void onPostCreate(Bundle savedInstanceState) {
         super.onPostCreate(savedInstanceState);
         mDrawerToggle.syncState();
-        mCoordinator.coordinate(mToolbarToggle, mCalendarView, mAgendaView);
+        mCoordinator.coordinate(mToolbarToggle, mCalendarView, mAgendaView, mWeekView);
         if (checkCalendarPermissions()) {
             loadEvents();
         } else {
@@ -138,6 +161,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         menu.findItem(R.id.action_weather).setChecked(mWeatherEnabled);
+        menu.findItem(R.id.action_week).setChecked(mWeekView.getVisibility() == View.VISIBLE);
         return super.onPrepareOptionsMenu(menu);
     }
 
@@ -147,6 +171,10 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             mCoordinator.reset();
             return true;
         }
+        if (item.getItemId() == R.id.action_week) {
+            toggleWeekView(mWeekView.getVisibility() != View.VISIBLE);
+            return true;
+        }
         if (item.getItemId() == R.id.action_weather) {
             mPendingWeatherEnabled = !mWeatherEnabled;
             if (!mWeatherEnabled && !checkLocationPermissions()) {
@@ -164,13 +192,24 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         super.onSaveInstanceState(outState);
         mCoordinator.saveState(outState);
         outState.putBoolean(STATE_TOOLBAR_TOGGLE, mToolbarToggle.isChecked());
+        outState.putBoolean(STATE_WEEK_VIEW, mWeekView.getVisibility() == View.VISIBLE);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (checkCalendarPermissions()) {
+            EventSnapshotFile.save(this);
+        }
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        unregisterReceiver(mTimeChangeReceiver);
         mCalendarView.deactivate();
         mAgendaView.setAdapter(null);
+        mWeekView.setAdapter(null);
         PreferenceManager.getDefaultSharedPreferences(this)
                 .edit()
                 .putString(CalendarUtils.PREF_CALENDAR_EXCLUSIONS,
@@ -220,7 +259,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             selection = CalendarContract.Calendars.ACCOUNT_TYPE + "=?";
             selectionArgs = new String[]{String.valueOf(CalendarContract.ACCOUNT_TYPE_LOCAL)};
         }
-        return new CursorLoader(this,
+        return new MeasuredCursorLoader(this, QueryMetrics.CALLER_CALENDARS,
                 CalendarContract.Calendars.CONTENT_URI,
                 CalendarCursor.PROJECTION, selection, selectionArgs,
                 CalendarContract.Calendars.DEFAULT_SORT_ORDER);
@@ -255,6 +294,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 .getString(CalendarUtils.PREF_CALENDAR_EXCLUSIONS, null);
         if (!TextUtils.isEmpty(exclusions)) {
             mExcludedCalendarIds.addAll(Arrays.asList(exclusions.split(SEPARATOR)));
+            EventsQueryHandler.invalidateSelection();
         }
         PreferenceManager.getDefaultSharedPreferences(this)
                 .registerOnSharedPreferenceChangeListener(mWeatherChangeListener);
@@ -283,6 +323,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         }
         mCalendarView = (EventCalendarView) findViewById(R.id.calendar_view);
         mAgendaView = (AgendaView) findViewById(R.id.agenda_view);
+        mWeekView = (WeekView) findViewById(R.id.week_view);
         mFabAdd = (FloatingActionButton) findViewById(R.id.fab);
         mFabAdd.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -301,6 +342,13 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         }
     }
 
+    // the week timeline takes the place of the agenda below the month grid
+    private void toggleWeekView(boolean visible) {
+        mWeekView.setVisibility(visible ? View.VISIBLE : View.GONE);
+        mAgendaView.setVisibility(visible ? View.GONE : View.VISIBLE);
+        supportInvalidateOptionsMenu();
+    }
+
     private void toggleEmptyView(boolean visible) {
         if (visible) {
             findViewById(R.id.empty).setVisibility(View.VISIBLE);
@@ -325,8 +373,32 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         getSupportLoaderManager().initLoader(LOADER_CALENDARS, null, this);
         getSupportLoaderManager().initLoader(LOADER_LOCAL_CALENDAR, null, this);
         mFabAdd.show();
-        mCalendarView.setCalendarAdapter(new CalendarCursorAdapter(this, mExcludedCalendarIds));
-        mAgendaView.setAdapter(new AgendaCursorAdapter(this, mExcludedCalendarIds));
+        final CalendarCursorAdapter calendarAdapter =
+                new CalendarCursorAdapter(this, mExcludedCalendarIds);
+        final AgendaCursorAdapter agendaAdapter =
+                new AgendaCursorAdapter(this, mExcludedCalendarIds);
+        final WeekCursorAdapter weekAdapter = new WeekCursorAdapter(this, mExcludedCalendarIds);
+        EventSnapshotFile.OnLoadListener loadListener = new EventSnapshotFile.OnLoadListener() {
+            @Override
+            public void onSnapshotLoaded(long startTimeMillis, long endTimeMillis) {
+                // draw the saved events until the queries already started answer
+                mCalendarView.setDayPresence(null);
+                for (long month = CalendarUtils.monthFirstDay(startTimeMillis);
+                     month < endTimeMillis; month = CalendarUtils.addMonths(month, 1)) {
+                    if (month >= startTimeMillis && CalendarUtils.addDays(month,
+                            CalendarUtils.monthSize(month)) <= endTimeMillis) {
+                        calendarAdapter.bindEvents(month);
+                    }
+                }
+                agendaAdapter.bindEvents(startTimeMillis, endTimeMillis);
+                weekAdapter.bindEvents(startTimeMillis, endTimeMillis);
+            }
+        };
+        // the month grid marks saved event days on the first frame, before the events
+        mCalendarView.setDayPresence(EventSnapshotFile.load(this, loadListener));
+        mCalendarView.setCalendarAdapter(calendarAdapter);
+        mAgendaView.setAdapter(agendaAdapter);
+        mWeekView.setAdapter(weekAdapter);
         loadWeather();
     }
 
@@ -422,31 +494,46 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 sync(dayMillis, mAgendaView);
             }
         };
+        private final WeekView.OnDateChangeListener mWeekListener
+                = new WeekView.OnDateChangeListener() {
+            @Override
+            public void onSelectedDayChange(long dayMillis) {
+                sync(dayMillis, mWeekView);
+            }
+        };
         private TextView mTextView;
         private EventCalendarView mCalendarView;
         private AgendaView mAgendaView;
+        private WeekView mWeekView;
         private long mSelectedDayMillis = CalendarUtils.NO_TIME_MILLIS;
 
         public void coordinate(TextView textView,
                                EventCalendarView calendarView,
-                               AgendaView agendaView) {
+                               AgendaView agendaView,
+                               WeekView weekView) {
             if (mCalendarView != null) {
                 mCalendarView.setOnChangeListener(null);
             }
             if (mAgendaView != null) {
                 mAgendaView.setOnDateChangeListener(null);
             }
+            if (mWeekView != null) {
+                mWeekView.setOnDateChangeListener(null);
+            }
             mTextView = textView;
             mCalendarView = calendarView;
             mAgendaView = agendaView;
+            mWeekView = weekView;
             if (mSelectedDayMillis < 0) {
                 mSelectedDayMillis = CalendarUtils.today();
             }
             mCalendarView.setSelectedDay(mSelectedDayMillis);
             agendaView.setSelectedDay(mSelectedDayMillis);
+            weekView.setSelectedDay(mSelectedDayMillis);
             updateTitle(mSelectedDayMillis);
             calendarView.setOnChangeListener(mCalendarListener);
             agendaView.setOnDateChangeListener(mAgendaListener);
+            weekView.setOnDateChangeListener(mWeekListener);
         }
 
         void saveState(Bundle outState) {
@@ -466,6 +553,9 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             if (mAgendaView != null) {
                 mAgendaView.reset();
             }
+            if (mWeekView != null) {
+                mWeekView.reset();
+            }
             updateTitle(mSelectedDayMillis);
         }
 
@@ -477,6 +567,9 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             if (originator != mAgendaView) {
                 mAgendaView.setSelectedDay(dayMillis);
             }
+            if (originator != mWeekView) {
+                mWeekView.setSelectedDay(dayMillis);
+            }
             updateTitle(dayMillis);
         }
 
@@ -487,17 +580,23 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
 
     static class AgendaCursorAdapter extends AgendaAdapter {
 
-        final DayEventsQueryHandler mHandler;
+        final BlockEventsQueryHandler mHandler;
 
         public AgendaCursorAdapter(Context context, Collection<String> excludedCalendarIds) {
             super(context);
-            mHandler = new DayEventsQueryHandler(context.getContentResolver(), this,
+            mHandler = new BlockEventsQueryHandler(context.getContentResolver(), this,
                     excludedCalendarIds);
         }
 
         @Override
-        protected void loadEvents(long timeMillis) {
-            mHandler.startQuery(timeMillis, timeMillis, timeMillis + DateUtils.DAY_IN_MILLIS);
+        protected void loadEvents(long startTimeMillis, long endTimeMillis) {
+            mHandler.startQuery(Pair.create(startTimeMillis, endTimeMillis),
+                    startTimeMillis, endTimeMillis);
+        }
+
+        @Override
+        protected void retainEvents(long startTimeMillis, long endTimeMillis) {
+            mHandler.cancelQueriesOutside(startTimeMillis, endTimeMillis);
         }
     }
 
@@ -512,26 +611,54 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         @Override
         protected void loadEvents(long monthMillis) {
             long startTimeMillis = CalendarUtils.monthFirstDay(monthMillis),
-                    endTimeMillis = startTimeMillis + DateUtils.DAY_IN_MILLIS *
-                            CalendarUtils.monthSize(monthMillis);
+                    endTimeMillis = CalendarUtils.addDays(startTimeMillis,
+                            CalendarUtils.monthSize(monthMillis));
             mHandler.startQuery(monthMillis, startTimeMillis, endTimeMillis);
         }
+
+        @Override
+        protected void retainEvents(long firstMonthMillis, long lastMonthMillis) {
+            mHandler.cancelQueriesOutside(CalendarUtils.monthFirstDay(firstMonthMillis),
+                    CalendarUtils.monthFirstDay(CalendarUtils.addMonths(lastMonthMillis, 1)));
+        }
+    }
+
+    static class WeekCursorAdapter extends WeekView.WeekAdapter {
+        private final WeekEventsQueryHandler mHandler;
+
+        public WeekCursorAdapter(Context context, Collection<String> excludedCalendarIds) {
+            mHandler = new WeekEventsQueryHandler(context.getContentResolver(), this,
+                    excludedCalendarIds);
+        }
+
+        @Override
+        protected void loadEvents(long startTimeMillis, long endTimeMillis) {
+            mHandler.startQuery(Pair.create(startTimeMillis, endTimeMillis),
+                    startTimeMillis, endTimeMillis);
+        }
+
+        @Override
+        protected void retainEvents(long startTimeMillis, long endTimeMillis) {
+            mHandler.cancelQueriesOutside(startTimeMillis, endTimeMillis);
+        }
     }
 
-    static class DayEventsQueryHandler extends EventsQueryHandler {
+    static class BlockEventsQueryHandler extends EventsQueryHandler {
 
         private final AgendaCursorAdapter mAgendaCursorAdapter;
 
-        public DayEventsQueryHandler(ContentResolver cr,
-                                     AgendaCursorAdapter agendaCursorAdapter,
-                                     Collection<String> excludedCalendarIds) {
-            super(cr, excludedCalendarIds);
+        public BlockEventsQueryHandler(ContentResolver cr,
+                                       AgendaCursorAdapter agendaCursorAdapter,
+                                       Collection<String> excludedCalendarIds) {
+            super(cr, excludedCalendarIds, QueryMetrics.CALLER_AGENDA);
             mAgendaCursorAdapter = agendaCursorAdapter;
         }
 
         @Override
-        protected void handleQueryComplete(int token, Object cookie, EventCursor cursor) {
-            mAgendaCursorAdapter.bindEvents((Long) cookie, cursor);
+        protected void handleQueryComplete(int token, Object cookie, EventSnapshot events) {
+            @SuppressWarnings("unchecked")
+            Pair<Long, Long> range = (Pair<Long, Long>) cookie;
+            mAgendaCursorAdapter.bindEvents(range.first, range.second);
         }
     }
 
@@ -542,13 +669,32 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         public MonthEventsQueryHandler(ContentResolver cr,
                                        CalendarCursorAdapter adapter,
                                        Collection<String> excludedCalendarIds) {
-            super(cr, excludedCalendarIds);
+            super(cr, excludedCalendarIds, QueryMetrics.CALLER_MONTH);
+            mAdapter = adapter;
+        }
+
+        @Override
+        protected void handleQueryComplete(int token, Object cookie, EventSnapshot events) {
+            mAdapter.bindEvents((Long) cookie);
+        }
+    }
+
+    static class WeekEventsQueryHandler extends EventsQueryHandler {
+
+        private final WeekCursorAdapter mAdapter;
+
+        public WeekEventsQueryHandler(ContentResolver cr,
+                                      WeekCursorAdapter adapter,
+                                      Collection<String> excludedCalendarIds) {
+            super(cr, excludedCalendarIds, QueryMetrics.CALLER_WEEK);
             mAdapter = adapter;
         }
 
         @Override
-        protected void handleQueryComplete(int token, Object cookie, EventCursor cursor) {
-            mAdapter.bindEvents((Long) cookie, cursor);
+        protected void handleQueryComplete(int token, Object cookie, EventSnapshot events) {
+            @SuppressWarnings("unchecked")
+            Pair<Long, Long> range = (Pair<Long, Long>) cookie;
+            mAdapter.bindEvents(range.first, range.second);
         }
     }
 
@@ -2,6 +2,7 @@ package com.github.calendar;
 
 import android.Manifest;
 import android.content.AsyncQueryHandler;
+import android.content.ComponentName;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
@@ -15,7 +16,6 @@ import android.provider.CalendarContract;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AlertDialog;
@@ -28,6 +28,8 @@ import android.widget.Toast;
 import java.lang.ref.WeakReference;
 
 import com.github.calendar.content.CalendarCursor;
+import com.github.calendar.content.MeasuredCursorLoader;
+import com.github.calendar.content.QueryMetrics;
 import com.github.calendar.widget.EventEditView;
 
 public class NewEventActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
@@ -40,6 +42,31 @@ public class NewEventActivity extends AppCompatActivity implements LoaderManager
 
     private EventEditView mEventEditView;
 
+    /**
+     * Opens {@code event} for editing. An instance of a recurring event carries the id of
+     * its whole series, so it is handed to the calendar app, which can change the instance
+     * alone, rather than saved or deleted here.
+     */
+    public static void edit(Context context, EventEditView.Event event, boolean recurring) {
+        if (!recurring) {
+            context.startActivity(new Intent(context, NewEventActivity.class)
+                    .putExtra(EXTRA_EVENT, event));
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_VIEW,
+                ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI, event.getId()))
+                .putExtra(CalendarContract.EXTRA_EVENT_BEGIN_TIME, event.getStartDateTime())
+                .putExtra(CalendarContract.EXTRA_EVENT_END_TIME, event.getEndDateTime())
+                .putExtra(CalendarContract.EXTRA_EVENT_ALL_DAY, event.isAllDay());
+        ComponentName component = intent.resolveActivity(context.getPackageManager());
+        if (component == null) {
+            Toast.makeText(context, R.string.recurring_event_read_only, Toast.LENGTH_SHORT)
+                    .show();
+        } else {
+            context.startActivity(intent);
+        }
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -136,7 +163,8 @@ public class NewEventActivity extends AppCompatActivity implements LoaderManager
             selection = CalendarContract.Calendars._ID + "=?";
             selectionArgs = new String[]{String.valueOf(args.getLong(EXTRA_CALENDAR_ID))};
         }
-        return new CursorLoader(this, CalendarContract.Calendars.CONTENT_URI,
+        return new MeasuredCursorLoader(this, QueryMetrics.CALLER_CALENDARS,
+                CalendarContract.Calendars.CONTENT_URI,
                 CalendarCursor.PROJECTION,
                 selection, selectionArgs,
                 CalendarContract.Calendars.DEFAULT_SORT_ORDER);
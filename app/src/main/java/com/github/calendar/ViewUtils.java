@@ -7,8 +7,19 @@ import android.support.v4.content.ContextCompat;
 public class ViewUtils {
 
     public static int[] getCalendarColors(Context context) {
+        return getColors(context, R.array.calendar_colors);
+    }
+
+    /**
+     * Returns darker colors for the same calendars as {@link #getCalendarColors(Context)}.
+     */
+    public static int[] getCalendarDotColors(Context context) {
+        return getColors(context, R.array.calendar_dot_colors);
+    }
+
+    private static int[] getColors(Context context, int arrayId) {
         int transparentColor = ContextCompat.getColor(context, android.R.color.transparent);
-        TypedArray ta = context.getResources().obtainTypedArray(R.array.calendar_colors);
+        TypedArray ta = context.getResources().obtainTypedArray(arrayId);
         int[] colors;
         if (ta.length() > 0) {
             colors = new int[ta.length()];
@@ -0,0 +1,79 @@
+package com.github.calendar.content;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import com.github.calendar.EpochDay;
+
+/**
+ * Which local days of a saved range have events, one bit per day. Small enough to read
+ * on the main thread, so that a cold start can mark event days before the saved events
+ * themselves are decoded.
+ */
+public class DayPresence {
+    private final int mFirstDay;
+    private final int mDayCount;
+    private final long[] mWords;
+
+    DayPresence(int firstDay, int dayCount, long[] words) {
+        mFirstDay = firstDay;
+        mDayCount = dayCount;
+        mWords = words;
+    }
+
+    /**
+     * Marks the days of [startTimeMillis, endTimeMillis) that {@code events} overlap, with
+     * the same day rules as the month grid.
+     */
+    static DayPresence of(long startTimeMillis, long endTimeMillis, EventSnapshot events) {
+        int firstDay = EpochDay.fromMillis(startTimeMillis),
+                dayCount = Math.max(EpochDay.fromMillis(endTimeMillis - 1) - firstDay + 1, 0);
+        long[] words = new long[(dayCount + Long.SIZE - 1) / Long.SIZE];
+        for (int row = 0; row < events.size(); row++) {
+            int first = EpochDay.fromMillis(events.getStartTimeMillis(row)) - firstDay,
+                    last = EpochDay.fromMillis(events.getEndTimeMillis(row)) - firstDay;
+            if (events.isAllDay(row)) {
+                // all-day events end at the start of the following day
+                last--;
+            }
+            for (int day = Math.max(first, 0); day <= Math.min(last, dayCount - 1); day++) {
+                words[day / Long.SIZE] |= 1L << day;
+            }
+        }
+        return new DayPresence(firstDay, dayCount, words);
+    }
+
+    /**
+     * Whether all {@code days} days from epoch day {@code firstDay} are in the range.
+     */
+    public boolean covers(int firstDay, int days) {
+        return firstDay >= mFirstDay && firstDay + days <= mFirstDay + mDayCount;
+    }
+
+    public boolean hasEvents(int epochDay) {
+        int day = epochDay - mFirstDay;
+        return day >= 0 && day < mDayCount && (mWords[day / Long.SIZE] & 1L << day) != 0;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(mFirstDay);
+        out.writeInt(mDayCount);
+        for (long word : mWords) {
+            out.writeLong(word);
+        }
+    }
+
+    static DayPresence read(ByteBuffer buffer) {
+        int firstDay = buffer.getInt(), dayCount = buffer.getInt();
+        if (dayCount < 0 || dayCount > (long) buffer.remaining() / 8 * Long.SIZE) {
+            throw new BufferUnderflowException();
+        }
+        long[] words = new long[(dayCount + Long.SIZE - 1) / Long.SIZE];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = buffer.getLong();
+        }
+        return new DayPresence(firstDay, dayCount, words);
+    }
+}
@@ -12,7 +12,9 @@ public class EventCursor extends CursorWrapper {
             CalendarContract.Events.TITLE,
             CalendarContract.Events.DTSTART,
             CalendarContract.Events.DTEND,
-            CalendarContract.Events.ALL_DAY
+            CalendarContract.Events.ALL_DAY,
+            CalendarContract.Events.RRULE,
+            CalendarContract.Events.ORIGINAL_ID
     };
     private static final int PROJECTION_INDEX_ID = 0;
     private static final int PROJECTION_INDEX_CALENDAR_ID = 1;
@@ -20,6 +22,8 @@ public class EventCursor extends CursorWrapper {
     private static final int PROJECTION_INDEX_DTSTART = 3;
     private static final int PROJECTION_INDEX_DTEND = 4;
     private static final int PROJECTION_INDEX_ALL_DAY = 5;
+    private static final int PROJECTION_INDEX_RRULE = 6;
+    private static final int PROJECTION_INDEX_ORIGINAL_ID = 7;
 
     public EventCursor(Cursor cursor) {
         super(cursor);
@@ -48,4 +52,11 @@ public class EventCursor extends CursorWrapper {
     public boolean getAllDay() {
         return getInt(PROJECTION_INDEX_ALL_DAY) == 1;
     }
+
+    /**
+     * Returns true for rows of a recurring series, including exceptions to one.
+     */
+    public boolean isRecurring() {
+        return !isNull(PROJECTION_INDEX_RRULE) || !isNull(PROJECTION_INDEX_ORIGINAL_ID);
+    }
 }
@@ -0,0 +1,307 @@
+package com.github.calendar.content;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.CalendarContract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide index of loaded events, keyed by local start/end time. Filled from
+ * {@link EventsQueryHandler} results and shared by the month grid and the agenda.
+ * Main thread only.
+ */
+public class EventIndex {
+
+    private static final int MAX_SIZE = 10000;
+    // past the size limit, only this much around the range being served is kept: the
+    // agenda window and the pages of the month pager on either side of it
+    private static final long KEEP_MILLIS = 93 * 24 * 60 * 60 * 1000L;
+    private static final long CHANGE_DEBOUNCE_MILLIS = 300;
+    private static final long CHANGE_MAX_DELAY_MILLIS = 2000;
+    private static EventIndex sInstance;
+
+    private final Runnable mNotifyInvalidated = new Runnable() {
+        @Override
+        public void run() {
+            mInvalidationPending = false;
+            for (OnInvalidateListener listener : new ArrayList<>(mListeners)) {
+                listener.onInvalidate();
+            }
+        }
+    };
+    private final Runnable mInvalidateChanged = new Runnable() {
+        @Override
+        public void run() {
+            invalidate();
+        }
+    };
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ContentObserver mContentObserver = new ContentObserver(mHandler) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            // a sync batch notifies many times in a row, invalidate once it settles
+            long now = SystemClock.uptimeMillis();
+            if (mFirstChangeMillis < 0) {
+                mFirstChangeMillis = now;
+            }
+            long delay = Math.min(CHANGE_DEBOUNCE_MILLIS,
+                    mFirstChangeMillis + CHANGE_MAX_DELAY_MILLIS - now);
+            mHandler.removeCallbacks(mInvalidateChanged);
+            mHandler.postDelayed(mInvalidateChanged, Math.max(delay, 0));
+        }
+    };
+    private final List<OnInvalidateListener> mListeners = new ArrayList<>();
+    private final List<long[]> mCoverage = new ArrayList<>();
+    private final List<long[]> mSeeded = new ArrayList<>();
+    private EventSnapshot mEvents = EventSnapshot.EMPTY;
+    private long[] mMaxReaches = new long[0];
+    private int[] mRows = new int[0];
+    private int mRowCount;
+    private boolean mObserving;
+    private long mFirstChangeMillis = -1;
+    private boolean mInvalidationPending;
+    private int mGeneration;
+
+    public interface OnInvalidateListener {
+        void onInvalidate();
+    }
+
+    public static EventIndex getInstance() {
+        if (sInstance == null) {
+            sInstance = new EventIndex();
+        }
+        return sInstance;
+    }
+
+    EventIndex() {
+    }
+
+    public void addOnInvalidateListener(OnInvalidateListener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeOnInvalidateListener(OnInvalidateListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Drops all indexed events and notifies listeners once, even if called repeatedly
+     * before the notification is delivered.
+     */
+    public void invalidate() {
+        mHandler.removeCallbacks(mInvalidateChanged);
+        mFirstChangeMillis = -1;
+        clear();
+        if (!mInvalidationPending) {
+            mInvalidationPending = true;
+            mHandler.post(mNotifyInvalidated);
+        }
+    }
+
+    public boolean covers(long startTimeMillis, long endTimeMillis) {
+        for (long[] range : mCoverage) {
+            if (range[0] <= startTimeMillis && endTimeMillis <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether [startTimeMillis, endTimeMillis) is only known from a saved snapshot,
+     * which may be outdated until the range is queried.
+     */
+    public boolean seeded(long startTimeMillis, long endTimeMillis) {
+        for (long[] range : mSeeded) {
+            if (range[0] <= startTimeMillis && endTimeMillis <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns events overlapping [startTimeMillis, endTimeMillis), ordered by start time,
+     * with the same overlap rules as the provider selection.
+     */
+    public EventSnapshot query(long startTimeMillis, long endTimeMillis) {
+        mRowCount = 0;
+        query(0, mEvents.size(), startTimeMillis, endTimeMillis);
+        if (mRowCount == 0) {
+            return EventSnapshot.EMPTY;
+        }
+        EventSnapshot result = new EventSnapshot(mRowCount);
+        for (int i = 0; i < mRowCount; i++) {
+            result.add(mEvents, mRows[i]);
+        }
+        return result;
+    }
+
+    int generation() {
+        return mGeneration;
+    }
+
+    boolean isEmpty() {
+        return mEvents.size() == 0 && mCoverage.isEmpty() && mSeeded.isEmpty();
+    }
+
+    long[] coverage(long timeMillis) {
+        for (long[] range : mCoverage) {
+            if (range[0] <= timeMillis && timeMillis < range[1]) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds saved events for [startTimeMillis, endTimeMillis) without marking the range
+     * as covered, so it is still queried. Covered ranges keep their queried events, and
+     * saved events replace those seeded before them elsewhere in the range.
+     */
+    void seed(long startTimeMillis, long endTimeMillis, EventSnapshot events) {
+        EventSnapshot kept = new EventSnapshot(mEvents.size());
+        for (int row = 0; row < mEvents.size(); row++) {
+            if (!mEvents.overlaps(row, startTimeMillis, endTimeMillis) ||
+                    overlapsCoverage(mEvents, row)) {
+                kept.add(mEvents, row);
+            }
+        }
+        EventSnapshot sorted = events.sortedByStart(),
+                added = new EventSnapshot(sorted.size());
+        for (int row = 0; row < sorted.size(); row++) {
+            if (!overlapsCoverage(sorted, row)) {
+                added.add(sorted, row);
+            }
+        }
+        setEvents(EventSnapshot.merge(kept, added));
+        mSeeded.add(new long[]{startTimeMillis, endTimeMillis});
+    }
+
+    /**
+     * Starts invalidating the index whenever the provider reports a change. This is
+     * the only observer on calendar events; views listen to the index instead.
+     */
+    void observe(ContentResolver resolver) {
+        if (!mObserving) {
+            mObserving = true;
+            resolver.registerContentObserver(CalendarContract.Events.CONTENT_URI, true,
+                    mContentObserver);
+        }
+    }
+
+    /**
+     * Replaces the indexed events overlapping [startTimeMillis, endTimeMillis) with
+     * {@code events}, which must be the provider result for that range, ordered by start.
+     */
+    void put(long startTimeMillis, long endTimeMillis, EventSnapshot events) {
+        if (mEvents.size() > MAX_SIZE) {
+            evict(startTimeMillis - KEEP_MILLIS, endTimeMillis + KEEP_MILLIS);
+        }
+        setEvents(EventSnapshot.merge(mEvents, events, startTimeMillis, endTimeMillis));
+        addCoverage(startTimeMillis, endTimeMillis);
+    }
+
+    // drops ranges outside of [keepStartMillis, keepEndMillis) and trims those across it,
+    // so that the windows on screen stay covered while far ones are queried again; keeps
+    // the generation, unlike clear(), so that queries on the way are still delivered
+    private void evict(long keepStartMillis, long keepEndMillis) {
+        trim(mCoverage, keepStartMillis, keepEndMillis);
+        trim(mSeeded, keepStartMillis, keepEndMillis);
+        EventSnapshot kept = new EventSnapshot(mEvents.size());
+        for (int row = 0; row < mEvents.size(); row++) {
+            if (mEvents.overlaps(row, keepStartMillis, keepEndMillis)) {
+                kept.add(mEvents, row);
+            }
+        }
+        setEvents(kept);
+    }
+
+    private static void trim(List<long[]> ranges, long startTimeMillis, long endTimeMillis) {
+        for (int i = ranges.size() - 1; i >= 0; i--) {
+            long[] range = ranges.get(i);
+            if (range[0] < endTimeMillis && startTimeMillis < range[1]) {
+                ranges.set(i, new long[]{Math.max(range[0], startTimeMillis),
+                        Math.min(range[1], endTimeMillis)});
+            } else {
+                ranges.remove(i);
+            }
+        }
+    }
+
+    private void clear() {
+        mGeneration++;
+        mCoverage.clear();
+        mSeeded.clear();
+        setEvents(EventSnapshot.EMPTY);
+    }
+
+    // queried events overlapping a covered range are all indexed already
+    private boolean overlapsCoverage(EventSnapshot events, int row) {
+        for (long[] range : mCoverage) {
+            if (events.overlaps(row, range[0], range[1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void setEvents(EventSnapshot events) {
+        mEvents = events;
+        mMaxReaches = new long[events.size()];
+        mRows = new int[events.size()];
+        buildMaxReaches(0, events.size());
+    }
+
+    private void addCoverage(long startTimeMillis, long endTimeMillis) {
+        long start = startTimeMillis, end = endTimeMillis;
+        for (int i = mCoverage.size() - 1; i >= 0; i--) {
+            long[] range = mCoverage.get(i);
+            if (range[0] <= end && start <= range[1]) {
+                start = Math.min(start, range[0]);
+                end = Math.max(end, range[1]);
+                mCoverage.remove(i);
+            }
+        }
+        mCoverage.add(new long[]{start, end});
+    }
+
+    private long buildMaxReaches(int from, int to) {
+        if (from >= to) {
+            return Long.MIN_VALUE;
+        }
+        int mid = (from + to) >>> 1;
+        mMaxReaches[mid] = Math.max(mEvents.reach(mid),
+                Math.max(buildMaxReaches(from, mid), buildMaxReaches(mid + 1, to)));
+        return mMaxReaches[mid];
+    }
+
+    private void query(int from, int to, long startTimeMillis, long endTimeMillis) {
+        if (from >= to) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        if (mMaxReaches[mid] <= startTimeMillis) {
+            return;
+        }
+        query(from, mid, startTimeMillis, endTimeMillis);
+        if (mEvents.getStartTimeMillis(mid) < endTimeMillis) {
+            if (mEvents.reach(mid) > startTimeMillis) {
+                mRows[mRowCount++] = mid;
+            }
+            query(mid + 1, to, startTimeMillis, endTimeMillis);
+        }
+    }
+}
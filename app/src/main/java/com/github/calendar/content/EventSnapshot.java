@@ -0,0 +1,185 @@
+package com.github.calendar.content;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.calendar.CalendarUtils;
+
+/**
+ * Immutable, column oriented copy of event rows. All-day events are stored in local
+ * time, like timed events, so rows can be compared regardless of their type.
+ */
+public class EventSnapshot {
+
+    public static final EventSnapshot EMPTY = new EventSnapshot(0);
+
+    private final long[] mIds;
+    private final long[] mCalendarIds;
+    private final long[] mStarts;
+    private final long[] mEnds;
+    private final String[] mTitles;
+    private final BitSet mAllDay;
+    private final BitSet mRecurring;
+    private int mSize;
+
+    EventSnapshot(int capacity) {
+        mIds = new long[capacity];
+        mCalendarIds = new long[capacity];
+        mStarts = new long[capacity];
+        mEnds = new long[capacity];
+        mTitles = new String[capacity];
+        mAllDay = new BitSet(capacity);
+        mRecurring = new BitSet(capacity);
+    }
+
+    /**
+     * Copies all rows of {@code cursor} ordered by start, sharing equal titles between
+     * rows. Leaves the cursor position before the first row.
+     */
+    static EventSnapshot read(EventCursor cursor) {
+        EventSnapshot snapshot = new EventSnapshot(Math.max(cursor.getCount(), 0));
+        Map<String, String> titles = new HashMap<>();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            String title = cursor.getTitle();
+            if (title != null) {
+                String shared = titles.get(title);
+                if (shared == null) {
+                    titles.put(title, title);
+                } else {
+                    title = shared;
+                }
+            }
+            boolean allDay = cursor.getAllDay();
+            long start = cursor.getDateTimeStart(), end = cursor.getDateTimeEnd();
+            if (allDay) {
+                start = CalendarUtils.toLocalTimeZone(start);
+                end = CalendarUtils.toLocalTimeZone(end);
+            }
+            snapshot.add(cursor.getId(), cursor.getCalendarId(), title, start, end, allDay,
+                    cursor.isRecurring());
+        }
+        cursor.moveToPosition(-1);
+        return snapshot.isSortedByStart() ? snapshot : snapshot.sortedByStart();
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getId(int row) {
+        return mIds[row];
+    }
+
+    public long getCalendarId(int row) {
+        return mCalendarIds[row];
+    }
+
+    public String getTitle(int row) {
+        return mTitles[row];
+    }
+
+    public long getStartTimeMillis(int row) {
+        return mStarts[row];
+    }
+
+    public long getEndTimeMillis(int row) {
+        return mEnds[row];
+    }
+
+    public boolean isAllDay(int row) {
+        return mAllDay.get(row);
+    }
+
+    /**
+     * Returns true if the row is an instance of a recurring event, whose id is that of
+     * the whole series.
+     */
+    public boolean isRecurring(int row) {
+        return mRecurring.get(row);
+    }
+
+    boolean overlaps(int row, long startTimeMillis, long endTimeMillis) {
+        return mStarts[row] < endTimeMillis && reach(row) > startTimeMillis;
+    }
+
+    // events starting inside a range match it even when they have no duration
+    long reach(int row) {
+        return Math.max(mEnds[row], mStarts[row] + 1);
+    }
+
+    void add(EventSnapshot source, int row) {
+        add(source.mIds[row], source.mCalendarIds[row], source.mTitles[row],
+                source.mStarts[row], source.mEnds[row], source.mAllDay.get(row),
+                source.mRecurring.get(row));
+    }
+
+    /**
+     * Returns the rows of {@code current} that do not overlap [startTimeMillis,
+     * endTimeMillis) together with all rows of {@code replacement}, merged in one pass.
+     * Both must be ordered by start, as is the result.
+     */
+    static EventSnapshot merge(EventSnapshot current, EventSnapshot replacement,
+                               long startTimeMillis, long endTimeMillis) {
+        EventSnapshot merged = new EventSnapshot(current.size() + replacement.size());
+        int row = 0, replacementRow = 0;
+        while (row < current.size() || replacementRow < replacement.size()) {
+            if (replacementRow == replacement.size() || row < current.size() &&
+                    current.mStarts[row] <= replacement.mStarts[replacementRow]) {
+                if (!current.overlaps(row, startTimeMillis, endTimeMillis)) {
+                    merged.add(current, row);
+                }
+                row++;
+            } else {
+                merged.add(replacement, replacementRow++);
+            }
+        }
+        return merged;
+    }
+
+    static EventSnapshot merge(EventSnapshot current, EventSnapshot addition) {
+        // an empty range before any row, so that no row is replaced
+        return merge(current, addition, Long.MIN_VALUE, Long.MIN_VALUE);
+    }
+
+    // rows come from the provider by UTC start, so only all-day rows, shifted to local
+    // time, can be out of place and by no more than a day; insertion sort is near linear
+    EventSnapshot sortedByStart() {
+        int[] order = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            int row = i, j = i;
+            while (j > 0 && mStarts[order[j - 1]] > mStarts[row]) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = row;
+        }
+        EventSnapshot sorted = new EventSnapshot(mSize);
+        for (int row : order) {
+            sorted.add(this, row);
+        }
+        return sorted;
+    }
+
+    private boolean isSortedByStart() {
+        for (int row = 1; row < mSize; row++) {
+            if (mStarts[row - 1] > mStarts[row]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void add(long id, long calendarId, String title, long start, long end, boolean allDay,
+             boolean recurring) {
+        mIds[mSize] = id;
+        mCalendarIds[mSize] = calendarId;
+        mTitles[mSize] = title;
+        mStarts[mSize] = start;
+        mEnds[mSize] = end;
+        mAllDay.set(mSize, allDay);
+        mRecurring.set(mSize, recurring);
+        mSize++;
+    }
+}
@@ -0,0 +1,163 @@
+package com.github.calendar.content;
+
+import android.content.Context;
+import android.os.AsyncTask;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.TimeZone;
+
+import com.github.calendar.CalendarUtils;
+
+/**
+ * Saves the indexed events around today to app storage, so that the next cold start
+ * can draw them before the provider has answered.
+ */
+public class EventSnapshotFile {
+
+    private static final String FILE_NAME = "events.snapshot";
+    private static final int WINDOW_MONTHS = 3;
+
+    public interface OnLoadListener {
+        /**
+         * Called on the main thread once saved events for [startTimeMillis,
+         * endTimeMillis) are in {@link EventIndex}, for views to draw them.
+         */
+        void onSnapshotLoaded(long startTimeMillis, long endTimeMillis);
+    }
+
+    /**
+     * Maps the saved snapshot, if any, and returns its days with events right away, for
+     * the first frame. The events are then decoded on a background thread and seeded into
+     * {@link EventIndex} as provisional events on the main thread, around days queries
+     * have answered for meanwhile. Does nothing and returns null once the index holds
+     * events, or if there is no readable snapshot.
+     */
+    public static DayPresence load(Context context, OnLoadListener listener) {
+        if (!EventIndex.getInstance().isEmpty()) {
+            return null;
+        }
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        ByteBuffer buffer = map(file);
+        if (buffer == null) {
+            return null;
+        }
+        // a few hundred bytes at the start of the mapping, the rows are left to the task
+        DayPresence presence = EventSnapshotState.decodePresence(buffer.duplicate());
+        if (presence == null) {
+            file.delete();
+            return null;
+        }
+        new LoadTask(file, buffer, listener).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return presence;
+    }
+
+    /**
+     * Writes the indexed events within a few months of today on a background thread.
+     */
+    public static void save(Context context) {
+        long today = CalendarUtils.today();
+        long[] range = EventIndex.getInstance().coverage(today);
+        if (range == null) {
+            return;
+        }
+        final long startTimeMillis = Math.max(range[0],
+                CalendarUtils.monthFirstDay(CalendarUtils.addMonths(today, -WINDOW_MONTHS))),
+                endTimeMillis = Math.min(range[1], CalendarUtils.monthFirstDay(
+                        CalendarUtils.addMonths(today, WINDOW_MONTHS + 1)));
+        final EventSnapshot events = EventIndex.getInstance()
+                .query(startTimeMillis, endTimeMillis);
+        final String timeZone = TimeZone.getDefault().getID();
+        final File dir = context.getApplicationContext().getFilesDir();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(dir, timeZone, startTimeMillis, endTimeMillis, events);
+            }
+        });
+    }
+
+    private static void write(File dir, String timeZone, long startTimeMillis,
+                              long endTimeMillis, EventSnapshot events) {
+        File tmp = new File(dir, FILE_NAME + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            EventSnapshotState.write(out, timeZone, startTimeMillis, endTimeMillis, events);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(new File(dir, FILE_NAME))) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            tmp.delete();
+        } finally {
+            close(out);
+        }
+    }
+
+    // the mapping stays valid after the file is closed
+    private static ByteBuffer map(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    static class LoadTask extends AsyncTask<Void, Void, EventSnapshotState.Saved> {
+        private final File mFile;
+        private final ByteBuffer mBuffer;
+        private final OnLoadListener mListener;
+
+        LoadTask(File file, ByteBuffer buffer, OnLoadListener listener) {
+            mFile = file;
+            mBuffer = buffer;
+            mListener = listener;
+        }
+
+        @Override
+        protected EventSnapshotState.Saved doInBackground(Void... params) {
+            EventSnapshotState.Saved saved = EventSnapshotState.decode(mBuffer);
+            if (saved == null) {
+                mFile.delete();
+            }
+            return saved;
+        }
+
+        @Override
+        protected void onPostExecute(EventSnapshotState.Saved saved) {
+            if (saved == null) {
+                return;
+            }
+            saved.seed();
+            mListener.onSnapshotLoaded(saved.startTimeMillis, saved.endTimeMillis);
+        }
+    }
+}
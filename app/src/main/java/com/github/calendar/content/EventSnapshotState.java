@@ -0,0 +1,216 @@
+package com.github.calendar.content;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Compact, versioned binary encoding of the indexed events of a range, shared by
+ * {@link EventSnapshotFile} and saved instance state. The {@link DayPresence} of the
+ * range comes first, then titles stored once in a table and rows as fixed size records,
+ * about 37 bytes each.
+ */
+public class EventSnapshotState {
+
+    private static final int MAGIC = 0x45564e54;
+    private static final int VERSION = 3;
+    // keeps saved instance state well clear of the binder transaction limit
+    private static final int MAX_STATE_ROWS = 1500;
+    private static final int FLAG_ALL_DAY = 1;
+    private static final int FLAG_RECURRING = 2;
+    // smallest encoding of a title (its length) and of a row, to check counts from disk
+    private static final int MIN_TITLE_BYTES = 4;
+    private static final int ROW_BYTES = 4 * 8 + 1 + 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Encodes the indexed events of [startTimeMillis, endTimeMillis) for saved instance
+     * state, or returns null if the index does not hold them all or they are too many.
+     */
+    public static byte[] save(long startTimeMillis, long endTimeMillis) {
+        EventIndex index = EventIndex.getInstance();
+        if (!index.covers(startTimeMillis, endTimeMillis)) {
+            return null;
+        }
+        EventSnapshot events = index.query(startTimeMillis, endTimeMillis);
+        if (events.size() > MAX_STATE_ROWS) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            write(out, TimeZone.getDefault().getID(), startTimeMillis, endTimeMillis, events);
+            out.close();
+        } catch (IOException e) {
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Seeds {@link EventIndex} with events from {@link #save(long, long)}, as after the
+     * process was killed. Days the index covers keep their queried events.
+     */
+    public static void restore(byte[] state) {
+        if (state == null) {
+            return;
+        }
+        read(ByteBuffer.wrap(state));
+    }
+
+    /**
+     * Reads an encoded snapshot into {@link EventIndex} as provisional events, returning
+     * false if it is unreadable or was saved in another time zone.
+     */
+    static boolean read(ByteBuffer buffer) {
+        Saved saved = decode(buffer);
+        if (saved == null) {
+            return false;
+        }
+        saved.seed();
+        return true;
+    }
+
+    /**
+     * Decodes a snapshot without touching {@link EventIndex}, so it can be done on any
+     * thread. Returns null if it is unreadable or was saved in another time zone.
+     */
+    static Saved decode(ByteBuffer buffer) {
+        try {
+            if (!readHeader(buffer)) {
+                return null;
+            }
+            long startTimeMillis = buffer.getLong(), endTimeMillis = buffer.getLong();
+            DayPresence.read(buffer);
+            String[] titles = new String[checkCount(buffer, MIN_TITLE_BYTES)];
+            for (int i = 0; i < titles.length; i++) {
+                titles[i] = readString(buffer);
+            }
+            int size = checkCount(buffer, ROW_BYTES);
+            EventSnapshot events = new EventSnapshot(size);
+            for (int i = 0; i < size; i++) {
+                long id = buffer.getLong(), calendarId = buffer.getLong(),
+                        start = buffer.getLong(), end = buffer.getLong();
+                int flags = buffer.get();
+                int title = buffer.getInt();
+                events.add(id, calendarId, title < 0 ? null : titles[title], start, end,
+                        (flags & FLAG_ALL_DAY) != 0, (flags & FLAG_RECURRING) != 0);
+            }
+            return new Saved(startTimeMillis, endTimeMillis, events);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes only the days with events, which come before the events themselves, so
+     * it is quick enough for the main thread. Returns null like {@link #decode}.
+     */
+    static DayPresence decodePresence(ByteBuffer buffer) {
+        try {
+            if (!readHeader(buffer)) {
+                return null;
+            }
+            buffer.getLong();
+            buffer.getLong();
+            return DayPresence.read(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static boolean readHeader(ByteBuffer buffer) {
+        // all-day events are stored in local time, so another zone invalidates them
+        return buffer.getInt() == MAGIC && buffer.getInt() == VERSION &&
+                TimeZone.getDefault().getID().equals(readString(buffer));
+    }
+
+    // a corrupted or truncated count must not allocate more than the buffer can hold
+    private static int checkCount(ByteBuffer buffer, int recordBytes) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / recordBytes) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+
+    static void write(DataOutputStream out, String timeZone, long startTimeMillis,
+                      long endTimeMillis, EventSnapshot events) throws IOException {
+        Map<String, Integer> titleIndices = new HashMap<>();
+        int[] titles = new int[events.size()];
+        for (int row = 0; row < events.size(); row++) {
+            String title = events.getTitle(row);
+            if (title == null) {
+                titles[row] = -1;
+                continue;
+            }
+            Integer index = titleIndices.get(title);
+            if (index == null) {
+                index = titleIndices.size();
+                titleIndices.put(title, index);
+            }
+            titles[row] = index;
+        }
+        String[] titleTable = new String[titleIndices.size()];
+        for (Map.Entry<String, Integer> entry : titleIndices.entrySet()) {
+            titleTable[entry.getValue()] = entry.getKey();
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, timeZone);
+        out.writeLong(startTimeMillis);
+        out.writeLong(endTimeMillis);
+        DayPresence.of(startTimeMillis, endTimeMillis, events).write(out);
+        out.writeInt(titleTable.length);
+        for (String title : titleTable) {
+            writeString(out, title);
+        }
+        out.writeInt(events.size());
+        for (int row = 0; row < events.size(); row++) {
+            out.writeLong(events.getId(row));
+            out.writeLong(events.getCalendarId(row));
+            out.writeLong(events.getStartTimeMillis(row));
+            out.writeLong(events.getEndTimeMillis(row));
+            out.writeByte((events.isAllDay(row) ? FLAG_ALL_DAY : 0) |
+                    (events.isRecurring(row) ? FLAG_RECURRING : 0));
+            out.writeInt(titles[row]);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[checkCount(buffer, 1)];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Decoded events of a range, not yet in {@link EventIndex}.
+     */
+    static class Saved {
+        final long startTimeMillis;
+        final long endTimeMillis;
+        final EventSnapshot events;
+
+        Saved(long startTimeMillis, long endTimeMillis, EventSnapshot events) {
+            this.startTimeMillis = startTimeMillis;
+            this.endTimeMillis = endTimeMillis;
+            this.events = events;
+        }
+
+        void seed() {
+            EventIndex.getInstance().seed(startTimeMillis, endTimeMillis, events);
+        }
+    }
+}
@@ -2,97 +2,282 @@ package com.github.calendar.content;
 
 import android.content.AsyncQueryHandler;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
 import android.provider.CalendarContract;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import com.github.calendar.CalendarUtils;
 
 public abstract class EventsQueryHandler extends AsyncQueryHandler {
 
-    private static final String SORT = CalendarContract.Events.DTSTART + " ASC";
+    private static final String SORT_INSTANCES = CalendarContract.Instances.BEGIN + " ASC";
     private static final String AND = " AND ";
     private static final String OR = " OR ";
     private static final String INT_TRUE = "1";
     private static final String INT_FALSE = "0";
     private static final String ALL_DAY = CalendarContract.Events.ALL_DAY + "=?";
     private static final String DELETED = CalendarContract.Events.DELETED + "=?";
-    private static final String NOT_CALENDAR_ID = CalendarContract.Events.CALENDAR_ID + "!=?";
-    private static final String START_WITHIN = "(" +
-            CalendarContract.Events.DTSTART + ">=?" + AND +
-            CalendarContract.Events.DTSTART + "<?" +
-            ")";
-
-    private static final String START_BEF_END_WITHIN_AFTER = "(" +
-            CalendarContract.Events.DTSTART + "<?" + AND +
-            CalendarContract.Events.DTEND + ">?" +
-            ")";
-
-    private static final String SELECTION_NON_ALL_DAY_EVENTS = "(" +
-            ALL_DAY + AND +
-            "(" + START_WITHIN + OR + START_BEF_END_WITHIN_AFTER + ")" +
-            ")";
-
-    private static final String SELECTION_ALL_DAY_EVENTS = "(" +
-            ALL_DAY + AND +
-            "(" + START_WITHIN + OR + START_BEF_END_WITHIN_AFTER + ")" +
-            ")";
-
-    private static final String SELECTION = "(" +
-            DELETED + AND + "(" + SELECTION_NON_ALL_DAY_EVENTS + OR + SELECTION_ALL_DAY_EVENTS + ")" +
-            ")";
+    private static final String CALENDAR_ID_NOT_IN = CalendarContract.Events.CALENDAR_ID +
+            " NOT IN (";
 
+    private static final String SELECTION_INSTANCES = selection(
+            CalendarContract.Instances.BEGIN, CalendarContract.Instances.END);
+
+    // the same clause is bound twice: timed events with local bounds, all-day events with UTC
+    private static String selection(String startColumn, String endColumn) {
+        String startWithin = "(" +
+                startColumn + ">=?" + AND +
+                startColumn + "<?" +
+                ")";
+        String startBefEndWithinAfter = "(" +
+                startColumn + "<?" + AND +
+                endColumn + ">?" +
+                ")";
+        String events = "(" +
+                ALL_DAY + AND +
+                "(" + startWithin + OR + startBefEndWithinAfter + ")" +
+                ")";
+        return "(" +
+                DELETED + AND + "(" + events + OR + events + ")" +
+                ")";
+    }
+
+    // bumped whenever the excluded calendars change, main thread only
+    private static int sExclusionsVersion;
+
+    private final ContentResolver mResolver;
     private final Collection<String> mExcludedCalendarIds;
+    private final String mCaller;
+    private final List<PendingQuery> mPendingQueries = new ArrayList<>();
+    private CompiledSelection mSelection;
+    private int mSelectionVersion;
+    private int mLastToken;
 
+    /**
+     * Queries expanded instances, so that recurring events show up on every day they
+     * occur, reporting to {@link QueryMetrics} as {@code caller}.
+     */
     public EventsQueryHandler(ContentResolver cr,
-                              Collection<String> excludedCalendarIds) {
+                              Collection<String> excludedCalendarIds,
+                              String caller) {
         super(cr);
+        mResolver = cr;
         mExcludedCalendarIds = excludedCalendarIds;
+        mCaller = caller;
+    }
+
+    /**
+     * Makes handlers compile their selection again from their excluded calendars, which
+     * must be called whenever those change.
+     */
+    public static void invalidateSelection() {
+        sExclusionsVersion++;
     }
 
-    public final void startQuery(Object cookie, long startTimeMillis, long endTimeMillis) {
-        final String utcStart = String.valueOf(CalendarUtils.toUtcTimeZone(startTimeMillis)),
-                utcEnd = String.valueOf(CalendarUtils.toUtcTimeZone(endTimeMillis)),
-                localStart = String.valueOf(startTimeMillis),
-                localEnd = String.valueOf(endTimeMillis);
-        List<String> args = new ArrayList<String>() {{
-            add(INT_FALSE);
-            add(INT_FALSE);
-            add(localStart);
-            add(localEnd);
-            add(localStart);
-            add(localStart);
-            add(INT_TRUE);
-            add(utcStart);
-            add(utcEnd);
-            add(utcStart);
-            add(utcStart);
-        }};
-        StringBuilder sb = new StringBuilder(SELECTION);
-        if (!mExcludedCalendarIds.isEmpty()) {
-            Iterator<String> iterator = mExcludedCalendarIds.iterator();
-            sb.append(AND).append("(");
-            while (iterator.hasNext()) {
-                args.add(iterator.next());
-                sb.append(NOT_CALENDAR_ID);
-                if (iterator.hasNext()) {
-                    sb.append(AND);
+    public final void startQuery(final Object cookie, final long startTimeMillis,
+                                 final long endTimeMillis) {
+        EventIndex index = EventIndex.getInstance();
+        QueryMetrics metrics = QueryMetrics.getInstance();
+        if (index.covers(startTimeMillis, endTimeMillis)) {
+            metrics.onIndexHit(mCaller);
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    // the range may have been evicted in the meantime
+                    if (EventIndex.getInstance().covers(startTimeMillis, endTimeMillis)) {
+                        handleQueryComplete(0, cookie, null);
+                    } else {
+                        startQuery(cookie, startTimeMillis, endTimeMillis);
+                    }
                 }
+            });
+            return;
+        }
+        if (index.seeded(startTimeMillis, endTimeMillis)) {
+            // draw the saved events right away, the query below brings them up to date
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    handleQueryComplete(0, cookie, null);
+                }
+            });
+        }
+        int generation = index.generation();
+        for (int i = mPendingQueries.size() - 1; i >= 0; i--) {
+            PendingQuery pending = mPendingQueries.get(i);
+            if (pending.generation != generation) {
+                cancel(i);
+            } else if (pending.startTimeMillis == startTimeMillis &&
+                    pending.endTimeMillis == endTimeMillis) {
+                pending.cookies.add(cookie);
+                metrics.onQueryCoalesced(mCaller);
+                return;
+            }
+        }
+        PendingQuery pending = new PendingQuery(++mLastToken, startTimeMillis, endTimeMillis,
+                generation);
+        pending.cookies.add(cookie);
+        mPendingQueries.add(pending);
+        metrics.onQueryStarted(mCaller);
+        CompiledSelection selection = getSelection();
+        String[] args = selection.args(startTimeMillis, endTimeMillis);
+        startQuery(pending.token, null, instancesUri(startTimeMillis, endTimeMillis),
+                InstanceCursor.PROJECTION, selection.selection, args, SORT_INSTANCES);
+    }
+
+    /**
+     * Cancels pending queries that do not overlap [startTimeMillis, endTimeMillis).
+     * Their results, if already on the way, are dropped without being delivered.
+     */
+    public final void cancelQueriesOutside(long startTimeMillis, long endTimeMillis) {
+        for (int i = mPendingQueries.size() - 1; i >= 0; i--) {
+            PendingQuery pending = mPendingQueries.get(i);
+            if (pending.endTimeMillis <= startTimeMillis ||
+                    pending.startTimeMillis >= endTimeMillis) {
+                cancel(i);
             }
-            sb.append(")");
         }
-        startQuery(0, cookie, CalendarContract.Events.CONTENT_URI,
-                EventCursor.PROJECTION, sb.toString(), args.toArray(new String[args.size()]), SORT);
     }
 
     @Override
     protected final void onQueryComplete(int token, Object cookie, Cursor cursor) {
-        handleQueryComplete(token, cookie, new EventCursor(cursor));
+        PendingQuery pending = removePending(token);
+        EventIndex index = EventIndex.getInstance();
+        if (pending == null || pending.generation != index.generation()) {
+            // cancelled or invalidated, whoever asked will ask again
+            if (pending != null) {
+                QueryMetrics.getInstance().onQueryCancelled(mCaller);
+            }
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        EventSnapshot events = null;
+        if (cursor != null) {
+            EventCursor eventCursor = new InstanceCursor(cursor);
+            events = EventSnapshot.read(eventCursor);
+            eventCursor.close();
+            index.observe(mResolver);
+            index.put(pending.startTimeMillis, pending.endTimeMillis, events);
+        }
+        QueryMetrics.getInstance().onQueryFinished(mCaller,
+                SystemClock.uptimeMillis() - pending.startedMillis,
+                events == null ? 0 : events.size(),
+                events == null ? 0 : MeasuredCursorLoader.windowBytes(events,
+                        InstanceCursor.PROJECTION.length));
+        for (Object queryCookie : pending.cookies) {
+            handleQueryComplete(token, queryCookie, events);
+        }
+    }
+
+    private void cancel(int index) {
+        cancelOperation(mPendingQueries.remove(index).token);
+        QueryMetrics.getInstance().onQueryCancelled(mCaller);
+    }
+
+    private PendingQuery removePending(int token) {
+        for (int i = 0; i < mPendingQueries.size(); i++) {
+            if (mPendingQueries.get(i).token == token) {
+                return mPendingQueries.remove(i);
+            }
+        }
+        return null;
+    }
+
+    private CompiledSelection getSelection() {
+        if (mSelection == null || mSelectionVersion != sExclusionsVersion) {
+            mSelection = new CompiledSelection(SELECTION_INSTANCES, mExcludedCalendarIds);
+            mSelectionVersion = sExclusionsVersion;
+        }
+        return mSelection;
+    }
+
+    private static Uri instancesUri(long startTimeMillis, long endTimeMillis) {
+        // all-day instances are stored in UTC, so the expanded range must cover both zones
+        long begin = Math.min(startTimeMillis, CalendarUtils.toUtcTimeZone(startTimeMillis)),
+                end = Math.max(endTimeMillis, CalendarUtils.toUtcTimeZone(endTimeMillis));
+        Uri.Builder builder = CalendarContract.Instances.CONTENT_URI.buildUpon();
+        ContentUris.appendId(builder, begin);
+        ContentUris.appendId(builder, end);
+        return builder.build();
+    }
+
+    /**
+     * Delivers the query result, which has also been added to {@link EventIndex}.
+     * {@code events} is null when the range was already indexed and no query was made,
+     * or when the range is drawn from a saved snapshot ahead of the actual result.
+     * Cancelled queries and queries overtaken by an index invalidation deliver nothing.
+     */
+    protected abstract void handleQueryComplete(int token, Object cookie, EventSnapshot events);
+
+    static class CompiledSelection {
+        private static final int ARG_LOCAL = 2;
+        private static final int ARG_UTC = 7;
+        private static final int ARG_EXCLUSIONS = 11;
+
+        final String selection;
+        private final String[] mArgs;
+
+        CompiledSelection(String baseSelection, Collection<String> excludedCalendarIds) {
+            Set<String> exclusions = new HashSet<>(excludedCalendarIds);
+            mArgs = new String[ARG_EXCLUSIONS + exclusions.size()];
+            mArgs[0] = INT_FALSE;
+            mArgs[1] = INT_FALSE;
+            mArgs[ARG_UTC - 1] = INT_TRUE;
+            if (exclusions.isEmpty()) {
+                selection = baseSelection;
+                return;
+            }
+            StringBuilder sb = new StringBuilder(baseSelection)
+                    .append(AND)
+                    .append(CALENDAR_ID_NOT_IN);
+            int index = ARG_EXCLUSIONS;
+            for (String calendarId : exclusions) {
+                mArgs[index++] = calendarId;
+                sb.append(index < mArgs.length ? "?," : "?)");
+            }
+            selection = sb.toString();
+        }
+
+        String[] args(long startTimeMillis, long endTimeMillis) {
+            String[] args = mArgs.clone();
+            fillRange(args, ARG_LOCAL, startTimeMillis, endTimeMillis);
+            fillRange(args, ARG_UTC, CalendarUtils.toUtcTimeZone(startTimeMillis),
+                    CalendarUtils.toUtcTimeZone(endTimeMillis));
+            return args;
+        }
+
+        private static void fillRange(String[] args, int offset, long start, long end) {
+            String startString = String.valueOf(start);
+            args[offset] = startString;
+            args[offset + 1] = String.valueOf(end);
+            args[offset + 2] = startString;
+            args[offset + 3] = startString;
+        }
     }
 
-    protected abstract void handleQueryComplete(int token, Object cookie, EventCursor cursor);
+    static class PendingQuery {
+        final int token;
+        final long startTimeMillis;
+        final long endTimeMillis;
+        final int generation;
+        final List<Object> cookies = new ArrayList<>(1);
+        final long startedMillis = SystemClock.uptimeMillis();
+
+        PendingQuery(int token, long startTimeMillis, long endTimeMillis, int generation) {
+            this.token = token;
+            this.startTimeMillis = startTimeMillis;
+            this.endTimeMillis = endTimeMillis;
+            this.generation = generation;
+        }
+    }
 }
@@ -0,0 +1,35 @@
+package com.github.calendar.content;
+
+import android.database.Cursor;
+import android.provider.CalendarContract;
+
+public class InstanceCursor extends EventCursor {
+
+    // same column order as EventCursor.PROJECTION, so the inherited getters apply
+    public static final String[] PROJECTION = new String[]{
+            CalendarContract.Instances.EVENT_ID,
+            CalendarContract.Instances.CALENDAR_ID,
+            CalendarContract.Instances.TITLE,
+            CalendarContract.Instances.BEGIN,
+            CalendarContract.Instances.END,
+            CalendarContract.Instances.ALL_DAY,
+            CalendarContract.Instances.RRULE,
+            CalendarContract.Instances.ORIGINAL_ID
+    };
+
+    public InstanceCursor(Cursor cursor) {
+        super(cursor);
+    }
+
+    public long getEventId() {
+        return getId();
+    }
+
+    public long getBegin() {
+        return getDateTimeStart();
+    }
+
+    public long getEnd() {
+        return getDateTimeEnd();
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.calendar.content;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.v4.content.CursorLoader;
+
+/**
+ * {@link CursorLoader} reporting its queries to {@link QueryMetrics}.
+ */
+public class MeasuredCursorLoader extends CursorLoader {
+
+    // native CursorWindow layout: a 12 byte slot per field and a 4 byte offset per row
+    private static final int FIELD_SLOT_BYTES = 12;
+    private static final int ROW_SLOT_BYTES = 4;
+    // rows read for the size of strings and blobs, without moving the window
+    private static final int SAMPLE_ROWS = 16;
+
+    private final String mCaller;
+
+    public MeasuredCursorLoader(Context context, String caller, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+        mCaller = caller;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        QueryMetrics metrics = QueryMetrics.getInstance();
+        metrics.onQueryStarted(mCaller);
+        long startMillis = SystemClock.uptimeMillis();
+        Cursor cursor;
+        try {
+            cursor = super.loadInBackground();
+        } catch (RuntimeException e) {
+            metrics.onQueryCancelled(mCaller);
+            throw e;
+        }
+        metrics.onQueryFinished(mCaller, SystemClock.uptimeMillis() - startMillis,
+                cursor == null ? 0 : cursor.getCount(), windowBytes(cursor));
+        return cursor;
+    }
+
+    /**
+     * Estimates the cursor window size of {@code cursor}'s rows from the first few, which
+     * are in the window already, leaving its position before the first row.
+     */
+    static long windowBytes(Cursor cursor) {
+        if (cursor == null || cursor.getCount() <= 0) {
+            return 0;
+        }
+        int columns = cursor.getColumnCount(), sampled = 0;
+        long sampledBytes = 0;
+        cursor.moveToPosition(-1);
+        while (sampled < SAMPLE_ROWS && cursor.moveToNext()) {
+            for (int i = 0; i < columns; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_STRING:
+                        sampledBytes += utf8Length(cursor.getString(i)) + 1;
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        sampledBytes += cursor.getBlob(i).length;
+                        break;
+                }
+            }
+            sampled++;
+        }
+        cursor.moveToPosition(-1);
+        long bytes = (long) cursor.getCount() * (ROW_SLOT_BYTES + columns * FIELD_SLOT_BYTES);
+        return sampled == 0 ? bytes : bytes + sampledBytes * cursor.getCount() / sampled;
+    }
+
+    static long windowBytes(EventSnapshot events, int columns) {
+        long bytes = (long) events.size() * (ROW_SLOT_BYTES + columns * FIELD_SLOT_BYTES);
+        for (int row = 0; row < events.size(); row++) {
+            String title = events.getTitle(row);
+            if (title != null) {
+                bytes += utf8Length(title) + 1;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the length of {@code value} encoded in UTF-8, as the window stores it.
+     */
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() &&
+                    Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
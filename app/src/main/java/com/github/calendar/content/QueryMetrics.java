@@ -0,0 +1,165 @@
+package com.github.calendar.content;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide counters for provider queries, split by caller. Plain Java so it can be
+ * exercised outside of a device; all methods are thread safe.
+ */
+public class QueryMetrics {
+
+    public static final String CALLER_AGENDA = "agenda";
+    public static final String CALLER_MONTH = "month";
+    public static final String CALLER_WEEK = "week";
+    public static final String CALLER_CALENDARS = "calendars";
+
+    /**
+     * Upper bounds of the latency histogram buckets, the last bucket is unbounded.
+     */
+    static final long[] LATENCY_BOUNDS_MILLIS = {4, 8, 16, 32, 64, 128, 256, 512, 1024, 2048};
+
+    private static QueryMetrics sInstance;
+
+    private final Map<String, Stats> mStats = new HashMap<>();
+
+    public static synchronized QueryMetrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new QueryMetrics();
+        }
+        return sInstance;
+    }
+
+    QueryMetrics() {
+    }
+
+    /**
+     * A query was sent to the provider and is waiting in its handler's queue.
+     */
+    public synchronized void onQueryStarted(String caller) {
+        Stats stats = stats(caller);
+        stats.started++;
+        stats.queueDepth++;
+        stats.maxQueueDepth = Math.max(stats.maxQueueDepth, stats.queueDepth);
+    }
+
+    /**
+     * A request joined a query already in flight for the same range.
+     */
+    public synchronized void onQueryCoalesced(String caller) {
+        stats(caller).coalesced++;
+    }
+
+    /**
+     * A request was answered from {@link EventIndex} without a query.
+     */
+    public synchronized void onIndexHit(String caller) {
+        stats(caller).indexHits++;
+    }
+
+    /**
+     * A started query was cancelled, or its result was dropped as outdated.
+     */
+    public synchronized void onQueryCancelled(String caller) {
+        Stats stats = stats(caller);
+        stats.cancelled++;
+        stats.queueDepth = Math.max(stats.queueDepth - 1, 0);
+    }
+
+    /**
+     * A started query delivered {@code rows} rows, taking about {@code windowBytes} bytes
+     * of cursor window.
+     */
+    public synchronized void onQueryFinished(String caller, long latencyMillis, int rows,
+                                             long windowBytes) {
+        Stats stats = stats(caller);
+        stats.finished++;
+        stats.queueDepth = Math.max(stats.queueDepth - 1, 0);
+        stats.rows += rows;
+        stats.windowBytes += windowBytes;
+        stats.maxWindowBytes = Math.max(stats.maxWindowBytes, windowBytes);
+        stats.totalLatencyMillis += latencyMillis;
+        int bucket = 0;
+        while (bucket < LATENCY_BOUNDS_MILLIS.length &&
+                latencyMillis > LATENCY_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        stats.latencyHistogram[bucket]++;
+    }
+
+    /**
+     * Returns a copy of the counters for {@code caller}.
+     */
+    public synchronized Stats getStats(String caller) {
+        return new Stats(stats(caller));
+    }
+
+    public synchronized void reset() {
+        mStats.clear();
+    }
+
+    private Stats stats(String caller) {
+        Stats stats = mStats.get(caller);
+        if (stats == null) {
+            stats = new Stats();
+            mStats.put(caller, stats);
+        }
+        return stats;
+    }
+
+    public static class Stats {
+        public long started;
+        public long coalesced;
+        public long indexHits;
+        public long cancelled;
+        public long finished;
+        public long rows;
+        public long windowBytes;
+        public long maxWindowBytes;
+        public long totalLatencyMillis;
+        public int queueDepth;
+        public int maxQueueDepth;
+        public final long[] latencyHistogram;
+
+        Stats() {
+            latencyHistogram = new long[LATENCY_BOUNDS_MILLIS.length + 1];
+        }
+
+        Stats(Stats source) {
+            started = source.started;
+            coalesced = source.coalesced;
+            indexHits = source.indexHits;
+            cancelled = source.cancelled;
+            finished = source.finished;
+            rows = source.rows;
+            windowBytes = source.windowBytes;
+            maxWindowBytes = source.maxWindowBytes;
+            totalLatencyMillis = source.totalLatencyMillis;
+            queueDepth = source.queueDepth;
+            maxQueueDepth = source.maxQueueDepth;
+            latencyHistogram = Arrays.copyOf(source.latencyHistogram,
+                    source.latencyHistogram.length);
+        }
+
+        public long averageLatencyMillis() {
+            return finished == 0 ? 0 : totalLatencyMillis / finished;
+        }
+
+        /**
+         * Upper bound of the histogram bucket holding the given percentile of finished
+         * queries, or {@link Long#MAX_VALUE} when it falls in the last bucket.
+         */
+        public long latencyPercentileMillis(double percentile) {
+            long target = (long) Math.ceil(finished * percentile / 100), count = 0;
+            for (int i = 0; i < latencyHistogram.length; i++) {
+                count += latencyHistogram[i];
+                if (count >= target && count > 0) {
+                    return i < LATENCY_BOUNDS_MILLIS.length ?
+                            LATENCY_BOUNDS_MILLIS[i] : Long.MAX_VALUE;
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -104,8 +104,10 @@ public class WeatherService extends IntentService {
         if (location == null && intent.getBooleanExtra(EXTRA_ACTIVE, false)) {
             notifyLocationError();
         }
-        long todaySeconds = CalendarUtils.today() / DateUtils.SECOND_IN_MILLIS,
-                tomorrowSeconds = todaySeconds + DateUtils.DAY_IN_MILLIS / DateUtils.SECOND_IN_MILLIS;
+        // CalendarUtils is safe to use from this worker thread
+        long today = CalendarUtils.today(),
+                todaySeconds = today / DateUtils.SECOND_IN_MILLIS,
+                tomorrowSeconds = CalendarUtils.addDays(today, 1) / DateUtils.SECOND_IN_MILLIS;
         persist(fetchForecast(location, todaySeconds), PREF_WEATHER_TODAY);
         persist(fetchForecast(location, tomorrowSeconds), PREF_WEATHER_TOMORROW);
         scheduleAlarm();
@@ -1,60 +1,88 @@
 package com.github.calendar.widget;
 
 import android.content.Context;
-import android.content.Intent;
 import android.content.res.TypedArray;
-import android.database.ContentObserver;
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Parcel;
-import android.os.Parcelable;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.util.Pair;
 import android.support.v7.text.AllCapsTransformationMethod;
 import android.support.v7.widget.RecyclerView;
-import android.text.format.DateUtils;
+import android.text.Layout;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.Executor;
 
 import com.github.calendar.CalendarUtils;
 import com.github.calendar.NewEventActivity;
 import com.github.calendar.R;
-import com.github.calendar.content.EventCursor;
+import com.github.calendar.content.EventIndex;
+import com.github.calendar.content.EventSnapshot;
+import com.github.calendar.content.EventSnapshotState;
 import com.github.calendar.weather.WeatherPojo;
 
 public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.RowViewHolder> {
-    private static final String STATE_EVENT_GROUPS = "state:eventGroups";
+    private static final String STATE_FIRST_DAY = "state:firstDay";
+    private static final String STATE_DAYS = "state:days";
+    private static final String STATE_EVENTS = "state:events";
     private static final int VIEW_TYPE_HEADER = 0;
     private static final int VIEW_TYPE_CONTENT = 1;
     private static final int MONTH_SIZE = 31;
     static final int BLOCK_SIZE = MONTH_SIZE;
+    private static final int MIN_BLOCK_SIZE = 7;
+    private static final int BLOCK_EVENTS = 150;
+    private static final int MAX_MAIN_THREAD_DIFF = 32 * 32;
     static final int MAX_SIZE = MONTH_SIZE * 3;
 
-    private final EventGroup.EventObserver mEventObserver = new EventGroup.EventObserver() {
+    private final EventIndex.OnInvalidateListener mInvalidateListener =
+            new EventIndex.OnInvalidateListener() {
+                @Override
+                public void onInvalidate() {
+                    reloadEvents();
+                }
+            };
+    // shared by all event rows, which resolve their item from the adapter position
+    private final View.OnClickListener mOnEventClickListener = new View.OnClickListener() {
         @Override
-        public void onChange(long timeMillis) {
-            if (!mLock) {
-                loadEvents(timeMillis);
+        public void onClick(View v) {
+            if (mRecyclerView == null) {
+                return;
+            }
+            int position = mRecyclerView.getChildAdapterPosition(v);
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            AdapterItem item = getAdapterItem(position);
+            if (item instanceof EventItem) {
+                editEvent(v.getContext(), (EventItem) item);
             }
         }
     };
     private final EventGroupList mEventGroups = new EventGroupList(BLOCK_SIZE);
     private final LayoutInflater mInflater;
     private final int mTransparentColor;
+    private final String mNoEventText;
+    private final TextLayoutCache mTitleLayouts = new TextLayoutCache();
+    private final TextLayoutCache mTimeLayouts = new TextLayoutCache();
+    // diffs finish in the order they were started, so results for a day arrive in order
+    private final Executor mDiffExecutor = new SerialExecutor();
     private final int mIconTint;
     private int mColors[];
     private WeatherPojo mWeather;
-    private boolean mLock;
+    private RecyclerView mRecyclerView;
+    private int mBlockSize = BLOCK_SIZE;
 
     public AgendaAdapter(Context context) {
         mInflater = LayoutInflater.from(context);
         mTransparentColor = ContextCompat.getColor(context, android.R.color.transparent);
+        mNoEventText = context.getString(R.string.no_event);
         TypedArray ta = context.getTheme().obtainStyledAttributes(new int[]{
                 android.R.attr.textColorTertiary
         });
@@ -63,8 +91,16 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
         mColors = new int[]{mTransparentColor};
     }
 
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        mRecyclerView = recyclerView;
+        EventIndex.getInstance().addOnInvalidateListener(mInvalidateListener);
+    }
+
     @Override
     public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        EventIndex.getInstance().removeOnInvalidateListener(mInvalidateListener);
+        mRecyclerView = null;
         deactivate();
     }
 
@@ -76,14 +112,16 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
                         parent, false));
             case VIEW_TYPE_CONTENT:
             default:
-                return new ContentViewHolder(mInflater.inflate(R.layout.list_item_content,
-                        parent, false));
+                ContentViewHolder holder = new ContentViewHolder(mInflater.inflate(
+                        R.layout.list_item_content, parent, false));
+                holder.itemView.setOnClickListener(mOnEventClickListener);
+                return holder;
         }
     }
 
     @Override
     public final void onBindViewHolder(RowViewHolder holder, int position) {
-        final AdapterItem item = getAdapterItem(position);
+        AdapterItem item = getAdapterItem(position);
         bindTitle(item, holder);
         if (item instanceof EventGroup) {
             loadEvents(position);
@@ -91,12 +129,6 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
         } else {
             bindTime((EventItem) item, (ContentViewHolder) holder);
             bindColor((EventItem) item, (ContentViewHolder) holder);
-            holder.itemView.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    editEvent(v.getContext(), (EventItem) item);
-                }
-            });
         }
     }
 
@@ -114,17 +146,35 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
         }
     }
 
-    protected void loadEvents(long timeMillis) {
+    protected void loadEvents(long startTimeMillis, long endTimeMillis) {
     }
 
-    public final void bindEvents(long timeMillis, EventCursor cursor) {
-        if (mLock) {
-            return;
+    protected void retainEvents(long startTimeMillis, long endTimeMillis) {
+    }
+
+    public final void bindEvents(long startTimeMillis, long endTimeMillis) {
+        EventIndex index = EventIndex.getInstance();
+        int days = 0, events = 0;
+        int first = mEventGroups.isEmpty() ? 0 :
+                Math.max(CalendarUtils.daysBetween(mEventGroups.get(0).mTimeMillis,
+                        startTimeMillis), 0);
+        for (int i = first; i < mEventGroups.size(); i++) {
+            EventGroup group = mEventGroups.get(i);
+            if (group.mTimeMillis >= endTimeMillis) {
+                break;
+            }
+            if (group.mTimeMillis >= startTimeMillis) {
+                EventSnapshot dayEvents = index.query(group.mTimeMillis,
+                        CalendarUtils.addDays(group.mTimeMillis, 1));
+                setEvents(group, mEventGroups.positionOf(i), dayEvents);
+                days++;
+                events += dayEvents.size();
+            }
         }
-        Pair<EventGroup, Integer> pair = findGroup(timeMillis);
-        if (pair != null) {
-            pair.first.setCursor(cursor, mEventObserver);
-            notifyEventsChanged(pair.first, pair.second);
+        if (days > 0) {
+            // size later queries so that busy calendars get smaller, quicker blocks
+            int blockSize = events == 0 ? BLOCK_SIZE : BLOCK_EVENTS * days / events;
+            mBlockSize = Math.max(MIN_BLOCK_SIZE, Math.min(blockSize, BLOCK_SIZE));
         }
     }
 
@@ -136,32 +186,85 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
         mEventGroups.clear();
     }
 
-    void invalidate() {
-        mEventGroups.invalidate();
-        notifyItemRangeChanged(0, getItemCount());
-    }
-
-    Bundle saveState() {
+    /**
+     * Saves the window as its first day and length, plus the loaded events of the days
+     * around {@code position} in {@link EventSnapshotState} encoding.
+     */
+    Bundle saveState(int position) {
         Bundle outState = new Bundle();
-        outState.putParcelableArrayList(STATE_EVENT_GROUPS, new ArrayList<>(mEventGroups));
+        if (mEventGroups.isEmpty()) {
+            return outState;
+        }
+        outState.putLong(STATE_FIRST_DAY, mEventGroups.get(0).mTimeMillis);
+        outState.putInt(STATE_DAYS, mEventGroups.size());
+        int first = Math.max(mEventGroups.groupIndexOf(position), 0), last = first;
+        if (mEventGroups.get(first).mEvents == null) {
+            return outState;
+        }
+        while (first > 0 && mEventGroups.get(first - 1).mEvents != null) {
+            first--;
+        }
+        while (last + 1 < mEventGroups.size() && mEventGroups.get(last + 1).mEvents != null) {
+            last++;
+        }
+        outState.putByteArray(STATE_EVENTS, EventSnapshotState.save(
+                mEventGroups.get(first).mTimeMillis,
+                CalendarUtils.addDays(mEventGroups.get(last).mTimeMillis, 1)));
         return outState;
     }
 
-    void restoreState(Bundle savedState) {
-        ArrayList<EventGroup> savedGroups =
-                savedState.getParcelableArrayList(STATE_EVENT_GROUPS);
-        mEventGroups.addAll(savedGroups);
+    /**
+     * Rebuilds the window from {@link #saveState(int)}. Days still covered by
+     * {@link EventIndex} show their events right away without a query. Days restored
+     * from the saved events show them too, but are queried again since they may be
+     * outdated, and other days load when bound.
+     */
+    void restoreState(Context context, Bundle savedState) {
+        int days = savedState.getInt(STATE_DAYS, 0);
+        if (days == 0) {
+            append(context);
+            return;
+        }
+        EventSnapshotState.restore(savedState.getByteArray(STATE_EVENTS));
+        EventIndex index = EventIndex.getInstance();
+        long firstDay = savedState.getLong(STATE_FIRST_DAY);
+        long seededStart = CalendarUtils.NO_TIME_MILLIS,
+                seededEnd = CalendarUtils.NO_TIME_MILLIS;
+        for (int i = 0; i < days; i++) {
+            EventGroup group = new EventGroup(context, CalendarUtils.addDays(firstDay, i));
+            mEventGroups.add(group);
+            long endTimeMillis = CalendarUtils.addDays(group.mTimeMillis, 1);
+            boolean covered = index.covers(group.mTimeMillis, endTimeMillis),
+                    seeded = !covered && index.seeded(group.mTimeMillis, endTimeMillis);
+            if (covered || seeded) {
+                setGroupEvents(group, index.query(group.mTimeMillis, endTimeMillis));
+            }
+            if (seeded) {
+                if (CalendarUtils.isNotTime(seededStart)) {
+                    seededStart = group.mTimeMillis;
+                }
+                seededEnd = endTimeMillis;
+            }
+        }
+        if (!CalendarUtils.isNotTime(seededStart)) {
+            loadEvents(seededStart, seededEnd);
+        }
     }
 
+    /**
+     * Returns the position of the day containing {@code timeMillis}, extending the window
+     * by a block if the day is just outside of it, or moving the whole window otherwise.
+     */
     int getPosition(Context context, long timeMillis) {
-        if (timeMillis < mEventGroups.get(0).mTimeMillis) {
-            while (timeMillis < mEventGroups.get(0).mTimeMillis) {
-                prepend(context);
-            }
-        } else if (timeMillis > mEventGroups.get(mEventGroups.size() - 1).mTimeMillis) {
-            while (timeMillis > mEventGroups.get(mEventGroups.size() - 1).mTimeMillis) {
-                append(context);
-            }
+        if (!isWithinReach(timeMillis)) {
+            return moveTo(context, timeMillis);
+        }
+        while (timeMillis < mEventGroups.get(0).mTimeMillis) {
+            prepend(context);
+        }
+        while (timeMillis >= CalendarUtils.addDays(
+                mEventGroups.get(mEventGroups.size() - 1).mTimeMillis, 1)) {
+            append(context);
         }
         Pair<EventGroup, Integer> pair = findGroup(timeMillis);
         if (pair == null) {
@@ -170,16 +273,71 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
         return pair.second;
     }
 
+    /**
+     * Whether the day containing {@code timeMillis} is in the window or at most a block
+     * away from it, so that scrolling there keeps the rows in between.
+     */
+    boolean isWithinReach(long timeMillis) {
+        if (mEventGroups.isEmpty()) {
+            return false;
+        }
+        int days = CalendarUtils.daysBetween(mEventGroups.get(0).mTimeMillis, timeMillis);
+        return days >= -BLOCK_SIZE && days < mEventGroups.size() + BLOCK_SIZE;
+    }
+
+    /**
+     * Replaces the window with a block of days on either side of the day containing
+     * {@code timeMillis}, and returns the position of that day. Takes the same time
+     * for any day, however far from the current window.
+     */
+    int moveTo(Context context, long timeMillis) {
+        mEventGroups.clear();
+        fill(context, timeMillis);
+        notifyDataSetChanged();
+        retainEvents(mEventGroups.get(0).mTimeMillis, CalendarUtils.addDays(
+                mEventGroups.get(mEventGroups.size() - 1).mTimeMillis, 1));
+        return mEventGroups.positionOf(mEventGroups.indexOfDay(timeMillis));
+    }
+
+    /**
+     * Returns the index in the window of the day the row at {@code position} belongs to,
+     * or -1 if there is no such row.
+     */
+    int getDayIndex(int position) {
+        return mEventGroups.groupIndexOf(position);
+    }
+
+    int getDayCount() {
+        return mEventGroups.size();
+    }
+
+    /**
+     * Starts loading events for the days from the one at {@code position} up to
+     * {@code days} days further, or back if {@code days} is negative.
+     */
+    void prefetch(int position, int days) {
+        int index = mEventGroups.groupIndexOf(position);
+        if (index < 0) {
+            return;
+        }
+        int step = days < 0 ? -1 : 1;
+        for (int i = 0; i <= Math.abs(days) && index >= 0 && index < mEventGroups.size();
+             i++, index += step) {
+            loadGroupEvents(index);
+        }
+    }
+
     AdapterItem getAdapterItem(int position) {
         return mEventGroups.getGroupOrItem(position);
     }
 
     void prepend(Context context) {
-        long daysMillis = mEventGroups.size() * DateUtils.DAY_IN_MILLIS;
+        int days = mEventGroups.size();
         int count = BLOCK_SIZE, inserted = 0;
         for (int i = 0; i < count; i++) {
             EventGroup last = mEventGroups.get(mEventGroups.size() - 1 - i);
-            EventGroup first = new EventGroup(context, last.mTimeMillis - daysMillis);
+            EventGroup first = new EventGroup(context,
+                    CalendarUtils.addDays(last.mTimeMillis, -days));
             inserted += first.itemCount() + 1;
             mEventGroups.add(0, first);
         }
@@ -189,18 +347,15 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
 
     void append(Context context) {
         if (mEventGroups.isEmpty()) {
-            int count = BLOCK_SIZE;
-            long today = CalendarUtils.today();
-            for (int i = -count; i < count; i++) {
-                mEventGroups.add(new EventGroup(context, today + DateUtils.DAY_IN_MILLIS * i));
-            }
+            fill(context, CalendarUtils.today());
         } else {
             int count = BLOCK_SIZE;
-            long daysMillis = mEventGroups.size() * DateUtils.DAY_IN_MILLIS;
+            int days = mEventGroups.size();
             int inserted = 0;
             for (int i = 0; i < count; i++) {
                 EventGroup first = mEventGroups.get(i);
-                EventGroup last = new EventGroup(context, first.mTimeMillis + daysMillis);
+                EventGroup last = new EventGroup(context,
+                        CalendarUtils.addDays(first.mTimeMillis, days));
                 inserted += last.itemCount() + 1;
                 mEventGroups.add(last);
             }
@@ -209,52 +364,64 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
         }
     }
 
-    void lockBinding() {
-        mLock = true;
-    }
-
-    void unlockBinding() {
-        mLock = false;
-        notifyItemRangeChanged(0, getItemCount());
+    private void fill(Context context, long dayMillis) {
+        int count = BLOCK_SIZE;
+        for (int i = -count; i < count; i++) {
+            mEventGroups.add(new EventGroup(context, CalendarUtils.addDays(dayMillis, i)));
+        }
     }
 
     void setWeather(WeatherPojo weather) {
         mWeather = weather;
-        notifyItemRangeChanged(0, getItemCount());
+        long today = CalendarUtils.today();
+        notifyGroupChanged(today);
+        notifyGroupChanged(CalendarUtils.addDays(today, 1));
     }
 
     private void bindTitle(AdapterItem item, RowViewHolder holder) {
         if (item instanceof EventGroup) {
             ((GroupViewHolder) holder).textView.setText(item.mTitle);
         } else if (item instanceof NoEventItem) {
-            ((ContentViewHolder) holder).textViewTitle.setText(R.string.no_event);
+            ((ContentViewHolder) holder).textViewTitle.setText(mNoEventText);
         } else {
-            ((ContentViewHolder) holder).textViewTitle.setText(item.mTitle);
+            TextLayoutView titleView = ((ContentViewHolder) holder).textViewTitle;
+            mTitleLayouts.setMetrics(titleView.getPaint(), titleView.getTextWidth());
+            Layout layout = mTitleLayouts.get(((EventItem) item).mId, item.mTitle);
+            if (layout != null) {
+                titleView.setLayout(layout);
+            } else {
+                titleView.setText(item.mTitle);
+            }
         }
     }
 
     private void bindTime(EventItem eventItem, ContentViewHolder contentHolder) {
+        TextLayoutView timeView = contentHolder.textViewTime;
         if (eventItem instanceof NoEventItem) {
-            contentHolder.textViewTime.setVisibility(View.GONE);
+            timeView.setVisibility(View.GONE);
             return;
         }
-        contentHolder.textViewTime.setVisibility(View.VISIBLE);
-        Context context = contentHolder.textViewTime.getContext();
+        timeView.setVisibility(View.VISIBLE);
+        String time = getTimeText(timeView.getContext(), eventItem);
+        mTimeLayouts.setMetrics(timeView.getPaint(), timeView.getTextWidth());
+        Layout layout = mTimeLayouts.get(eventItem.mId, time);
+        if (layout != null) {
+            timeView.setLayout(layout);
+        } else {
+            timeView.setText(time);
+        }
+    }
+
+    private static String getTimeText(Context context, EventItem eventItem) {
         switch (eventItem.mDisplayType) {
             case EventItem.DISPLAY_TYPE_ALL_DAY:
-                contentHolder.textViewTime.setText(R.string.all_day);
-                break;
+                return context.getString(R.string.all_day);
             case EventItem.DISPLAY_TYPE_START_TIME:
             default:
-                contentHolder.textViewTime.setText(CalendarUtils.toTimeString(
-                        context, eventItem.mStartTimeMillis));
-                break;
+                return CalendarUtils.toTimeString(context, eventItem.mStartTimeMillis);
             case EventItem.DISPLAY_TYPE_END_TIME:
-                String endTimeString = CalendarUtils.toTimeString(
-                        context, eventItem.mEndTimeMillis);
-                contentHolder.textViewTime.setText(
-                        context.getString(R.string.end_time, endTimeString));
-                break;
+                return context.getString(R.string.end_time,
+                        CalendarUtils.toTimeString(context, eventItem.mEndTimeMillis));
         }
     }
 
@@ -274,7 +441,7 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
             bindWeatherInfo(holder.textViewAfternoon, mWeather.today.afternoon);
             bindWeatherInfo(holder.textViewNight, mWeather.today.night);
             holder.weather.setVisibility(View.VISIBLE);
-        } else if (groupItem.mTimeMillis == CalendarUtils.today() + DateUtils.DAY_IN_MILLIS &&
+        } else if (groupItem.mTimeMillis == CalendarUtils.addDays(CalendarUtils.today(), 1) &&
                 mWeather != null && mWeather.tomorrow != null) {
             bindWeatherInfo(holder.textViewMorning, mWeather.tomorrow.morning);
             bindWeatherInfo(holder.textViewAfternoon, mWeather.tomorrow.afternoon);
@@ -294,44 +461,131 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
     }
 
     private Pair<EventGroup, Integer> findGroup(long timeMillis) {
-        int position = 0;
-        for (int i = 0; i < mEventGroups.size(); i++) {
-            EventGroup group = mEventGroups.get(i);
-            if (group.mTimeMillis == timeMillis) {
-                return Pair.create(group, position);
-            } else {
-                position += group.itemCount() + 1;
+        int index = mEventGroups.indexOfDay(timeMillis);
+        if (index < 0) {
+            return null;
+        }
+        return Pair.create(mEventGroups.get(index), mEventGroups.positionOf(index));
+    }
+
+    private void reloadEvents() {
+        int first = -1;
+        for (int i = 0; i <= mEventGroups.size(); i++) {
+            boolean loaded = i < mEventGroups.size() && !mEventGroups.get(i).needsLoading();
+            if (first >= 0 && (!loaded || i - first == mBlockSize)) {
+                loadEvents(mEventGroups.get(first).mTimeMillis,
+                        CalendarUtils.addDays(mEventGroups.get(i - 1).mTimeMillis, 1));
+                first = -1;
+            }
+            if (loaded && first < 0) {
+                first = i;
             }
         }
-        return null;
     }
 
-    private void notifyEventsChanged(EventGroup group, int position) {
-        int lastCount = group.mLastCursorCount,
-                newCount = group.mCursor.getCount(),
-                refreshCount = Math.min(newCount, lastCount),
-                diff = newCount - lastCount;
-        if (refreshCount == 0) {
-            refreshCount = 1;
-            diff = Math.max(--diff, 0);
+    private void notifyGroupChanged(long timeMillis) {
+        Pair<EventGroup, Integer> pair = findGroup(timeMillis);
+        if (pair != null) {
+            notifyItemChanged(pair.second);
+        }
+    }
+
+    private void setEvents(EventGroup group, int position, EventSnapshot events) {
+        EventSnapshot oldEvents = group.mEvents;
+        int oldCount = group.eventCount(), newCount = events.size();
+        if (oldCount == 0 || newCount == 0) {
+            setGroupEvents(group, events);
+            notifyEventsChanged(position, oldCount, newCount);
+        } else if (oldCount * newCount <= MAX_MAIN_THREAD_DIFF) {
+            EventDiff diff = EventDiff.compute(oldEvents, events);
+            setGroupEvents(group, events);
+            diff.dispatch(this, position + 1);
+        } else {
+            // keep showing the current rows until the diff is ready
+            group.mLoading = false;
+            group.mPendingEvents = events;
+            new DiffTask(this, group, oldEvents, events).executeOnExecutor(mDiffExecutor);
+        }
+    }
+
+    private void applyDiff(EventGroup group, EventSnapshot oldEvents, EventSnapshot events,
+                           EventDiff diff) {
+        // a newer result for the day is on its way, or the day is gone
+        if (group.mPendingEvents != events || !mEventGroups.contains(group)) {
+            return;
+        }
+        Pair<EventGroup, Integer> pair = findGroup(group.mTimeMillis);
+        if (group.mEvents != oldEvents) {
+            // the rows changed since the diff started, diff again from what is shown
+            setEvents(group, pair.second, events);
+            return;
+        }
+        setGroupEvents(group, events);
+        diff.dispatch(this, pair.second + 1);
+    }
+
+    private void setGroupEvents(EventGroup group, EventSnapshot events) {
+        mEventGroups.setEvents(group, events);
+        precomputeLayouts(group.mItems);
+    }
+
+    private void precomputeLayouts(EventItem[] items) {
+        if (items == null) {
+            return;
         }
+        Context context = mInflater.getContext();
+        long[] ids = new long[items.length];
+        String[] titles = new String[items.length], times = new String[items.length];
+        for (int i = 0; i < items.length; i++) {
+            ids[i] = items[i].mId;
+            titles[i] = items[i].mTitle;
+            times[i] = getTimeText(context, items[i]);
+        }
+        mTitleLayouts.precompute(ids, titles);
+        mTimeLayouts.precompute(ids, times);
+    }
+
+    // a day without events still takes one row for its placeholder
+    private void notifyEventsChanged(int position, int oldCount, int newCount) {
+        int oldRows = Math.max(oldCount, 1), newRows = Math.max(newCount, 1),
+                refreshCount = Math.min(oldRows, newRows);
         notifyItemRangeChanged(position + 1, refreshCount);
-        if (diff > 0) {
-            notifyItemRangeInserted(position + 1 + refreshCount, diff);
-        } else if (diff < 0) {
-            notifyItemRangeRemoved(position + 1 + refreshCount, -diff);
+        if (newRows > oldRows) {
+            notifyItemRangeInserted(position + 1 + refreshCount, newRows - oldRows);
+        } else if (newRows < oldRows) {
+            notifyItemRangeRemoved(position + 1 + refreshCount, oldRows - newRows);
         }
-        group.mLastCursorCount = newCount;
     }
 
     private void loadEvents(int position) {
-        if (mLock) {
+        loadGroupEvents(mEventGroups.indexOf(getAdapterItem(position)));
+    }
+
+    private void loadGroupEvents(int index) {
+        if (!mEventGroups.get(index).needsLoading()) {
             return;
         }
-        EventGroup group = (EventGroup) getAdapterItem(position);
-        if (group.mCursor == null) {
-            loadEvents(group.mTimeMillis);
+        int first = index, last = first;
+        while (last - first + 1 < mBlockSize) {
+            boolean grown = false;
+            if (last + 1 < mEventGroups.size() && mEventGroups.get(last + 1).needsLoading()) {
+                last++;
+                grown = true;
+            }
+            if (last - first + 1 < mBlockSize && first > 0 &&
+                    mEventGroups.get(first - 1).needsLoading()) {
+                first--;
+                grown = true;
+            }
+            if (!grown) {
+                break;
+            }
+        }
+        for (int i = first; i <= last; i++) {
+            mEventGroups.get(i).mLoading = true;
         }
+        loadEvents(mEventGroups.get(first).mTimeMillis,
+                CalendarUtils.addDays(mEventGroups.get(last).mTimeMillis, 1));
     }
 
     private void editEvent(Context context, EventItem eventItem) {
@@ -344,8 +598,7 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
                     .calendarId(eventItem.mCalendarId)
                     .title(eventItem.mTitle);
         }
-        context.startActivity(new Intent(context, NewEventActivity.class)
-                .putExtra(NewEventActivity.EXTRA_EVENT, eventBuilder.build()));
+        NewEventActivity.edit(context, eventBuilder.build(), eventItem.mIsRecurring);
     }
 
     private void prune(boolean start) {
@@ -358,6 +611,9 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
             mEventGroups.remove(index);
         }
         notifyItemRangeRemoved(start ? 0 : getItemCount(), removed);
+        retainEvents(mEventGroups.get(0).mTimeMillis,
+                CalendarUtils.addDays(
+                        mEventGroups.get(mEventGroups.size() - 1).mTimeMillis, 1));
     }
 
     static abstract class RowViewHolder extends RecyclerView.ViewHolder {
@@ -388,21 +644,29 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
 
     static class ContentViewHolder extends RowViewHolder {
 
-        final TextView textViewTitle;
-        final TextView textViewTime;
+        final TextLayoutView textViewTitle;
+        final TextLayoutView textViewTime;
         final View background;
 
         public ContentViewHolder(View itemView) {
             super(itemView);
-            textViewTitle = (TextView) itemView.findViewById(R.id.text_view_title);
-            textViewTime = (TextView) itemView.findViewById(R.id.text_view_time);
+            textViewTitle = (TextLayoutView) itemView.findViewById(R.id.text_view_title);
+            textViewTime = (TextLayoutView) itemView.findViewById(R.id.text_view_time);
             background = itemView.findViewById(R.id.background);
         }
     }
 
+    /**
+     * Groups of consecutive days. Adapter positions come from a Fenwick tree over the rows
+     * of each group, rebuilt lazily after groups are added or removed, and days map to
+     * groups by their distance from the first day.
+     */
     static class EventGroupList extends ArrayList<EventGroup> {
 
         int mChildrenSize = 0;
+        // 1-based, each node sums the rows, header included, of a range of groups
+        private int[] mTree = new int[1];
+        private boolean mTreeValid = true;
 
         EventGroupList(int capacity) {
             super(capacity);
@@ -411,12 +675,14 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
         @Override
         public void add(int index, EventGroup group) {
             mChildrenSize += group.itemCount();
+            mTreeValid = false;
             super.add(index, group);
         }
 
         @Override
         public boolean add(EventGroup group) {
             mChildrenSize += group.itemCount();
+            mTreeValid = false;
             return super.add(group);
         }
 
@@ -435,6 +701,7 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
         public EventGroup remove(int index) {
             EventGroup group = super.remove(index);
             mChildrenSize -= group.itemCount();
+            mTreeValid = false;
             group.deactivate();
             return group;
         }
@@ -446,38 +713,112 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
             }
             super.clear();
             mChildrenSize = 0;
+            mTreeValid = false;
+        }
+
+        @Override
+        public int indexOf(Object object) {
+            if (!(object instanceof EventGroup)) {
+                return -1;
+            }
+            int index = indexOfDay(((EventGroup) object).mTimeMillis);
+            return index >= 0 && get(index) == object ? index : -1;
+        }
+
+        @Override
+        public boolean contains(Object object) {
+            return indexOf(object) >= 0;
+        }
+
+        void setEvents(EventGroup group, EventSnapshot events) {
+            int oldCount = group.itemCount();
+            group.setEvents(events);
+            int delta = group.itemCount() - oldCount;
+            mChildrenSize += delta;
+            if (delta != 0 && mTreeValid) {
+                int index = indexOf(group);
+                if (index >= 0) {
+                    for (int i = index + 1; i < mTree.length; i += i & -i) {
+                        mTree[i] += delta;
+                    }
+                }
+            }
         }
 
         int groupAndChildrenSize() {
             return size() + mChildrenSize;
         }
 
-        AdapterItem getGroupOrItem(int index) {
-            int count = 0;
-            for (int i = 0; i < size(); i++) {
-                if (index < count + 1 + get(i).itemCount()) {
-                    if (index == count) {
-                        return get(i);
-                    } else {
-                        return get(i).getItem(index - count - 1);
-                    }
-                } else {
-                    count += 1 + get(i).itemCount();
+        /**
+         * Returns the index of the group for the day containing {@code timeMillis}, or -1.
+         */
+        int indexOfDay(long timeMillis) {
+            if (isEmpty()) {
+                return -1;
+            }
+            int index = CalendarUtils.daysBetween(get(0).mTimeMillis, timeMillis);
+            return index >= 0 && index < size() ? index : -1;
+        }
+
+        /**
+         * Returns the adapter position of the header of the group at {@code index}.
+         */
+        int positionOf(int index) {
+            validateTree();
+            int position = 0;
+            for (int i = index; i > 0; i -= i & -i) {
+                position += mTree[i];
+            }
+            return position;
+        }
+
+        int groupIndexOf(int position) {
+            if (position < 0 || position >= groupAndChildrenSize()) {
+                return -1;
+            }
+            validateTree();
+            // descend to the last group starting at or before position
+            int index = 0;
+            for (int step = Integer.highestOneBit(size()); step > 0; step >>= 1) {
+                if (index + step < mTree.length && mTree[index + step] <= position) {
+                    index += step;
+                    position -= mTree[index];
                 }
             }
-            return null;
+            return index;
         }
 
-        void invalidate() {
-            for (EventGroup group : this) {
-                mChildrenSize -= group.itemCount();
-                group.deactivate();
-                mChildrenSize += group.itemCount();
+        AdapterItem getGroupOrItem(int position) {
+            int index = groupIndexOf(position);
+            if (index < 0) {
+                return null;
             }
+            int offset = position - positionOf(index);
+            return offset == 0 ? get(index) : get(index).getItem(offset - 1);
+        }
+
+        private void validateTree() {
+            if (mTreeValid) {
+                return;
+            }
+            int size = size();
+            if (mTree.length != size + 1) {
+                mTree = new int[size + 1];
+            }
+            for (int i = 1; i <= size; i++) {
+                mTree[i] = get(i - 1).itemCount() + 1;
+            }
+            for (int i = 1; i <= size; i++) {
+                int parent = i + (i & -i);
+                if (parent <= size) {
+                    mTree[parent] += mTree[i];
+                }
+            }
+            mTreeValid = true;
         }
     }
 
-    static abstract class AdapterItem implements Parcelable {
+    static abstract class AdapterItem {
         final String mTitle;
         final long mTimeMillis;
 
@@ -486,92 +827,114 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
             this.mTimeMillis = timeMillis;
         }
 
-        AdapterItem(Parcel source) {
-            mTitle = source.readString();
-            mTimeMillis = source.readLong();
-        }
+    }
 
-        @Override
-        public int describeContents() {
-            return 0;
-        }
+    static class EventGroup extends AdapterItem {
+        private EventSnapshot mEvents;
+        // newest result waiting for its diff, older diffs in flight are dropped
+        private EventSnapshot mPendingEvents;
+        // rows are read on every bind and view type lookup, so they are built once
+        private EventItem[] mItems;
+        private NoEventItem mNoEventItem;
+        boolean mLoading;
 
-        @Override
-        public void writeToParcel(Parcel dest, int flags) {
-            dest.writeString(mTitle);
-            dest.writeLong(mTimeMillis);
+        EventGroup(Context context, long timeMillis) {
+            super(CalendarUtils.toDayString(context, timeMillis), timeMillis);
         }
-    }
 
-    static class EventGroup extends AdapterItem {
-        public static Creator<EventGroup> CREATOR = new Creator<EventGroup>() {
-            @Override
-            public EventGroup createFromParcel(Parcel source) {
-                return new EventGroup(source);
-            }
+        int itemCount() {
+            return Math.max(eventCount(), 1);
+        }
 
-            @Override
-            public EventGroup[] newArray(int size) {
-                return new EventGroup[size];
-            }
-        };
+        int eventCount() {
+            return mEvents == null ? 0 : mEvents.size();
+        }
 
-        interface EventObserver {
-            void onChange(long timeMillis);
+        boolean needsLoading() {
+            return mEvents == null && !mLoading;
         }
 
-        private final ContentObserver mContentObserver = new ContentObserver(new Handler()) {
-            @Override
-            public boolean deliverSelfNotifications() {
-                return true;
+        EventItem getItem(int index) {
+            if (eventCount() == 0) {
+                if (mNoEventItem == null) {
+                    mNoEventItem = new NoEventItem(null, mTimeMillis);
+                }
+                return mNoEventItem;
             }
+            return mItems[index];
+        }
 
-            @Override
-            public void onChange(boolean selfChange) {
-                mEventObserver.onChange(mTimeMillis);
+        void setEvents(EventSnapshot events) {
+            mEvents = events;
+            mPendingEvents = null;
+            mLoading = false;
+            mItems = new EventItem[events.size()];
+            for (int row = 0; row < mItems.length; row++) {
+                mItems[row] = new EventItem(mTimeMillis, events, row);
             }
-        };
-        private EventGroup.EventObserver mEventObserver;
-        int mLastCursorCount = 0;
-        EventCursor mCursor;
+        }
 
-        EventGroup(Context context, long timeMillis) {
-            super(CalendarUtils.toDayString(context, timeMillis), timeMillis);
+        void deactivate() {
+            mLoading = false;
+            mEvents = null;
+            mPendingEvents = null;
+            mItems = null;
         }
+    }
+
+    static class DiffTask extends AsyncTask<Void, Void, EventDiff> {
+        private final AgendaAdapter mAdapter;
+        private final EventGroup mGroup;
+        private final EventSnapshot mOldEvents;
+        private final EventSnapshot mNewEvents;
 
-        private EventGroup(Parcel source) {
-            super(source);
+        DiffTask(AgendaAdapter adapter, EventGroup group, EventSnapshot oldEvents,
+                 EventSnapshot newEvents) {
+            mAdapter = adapter;
+            mGroup = group;
+            mOldEvents = oldEvents;
+            mNewEvents = newEvents;
         }
 
-        int itemCount() {
-            if (mCursor == null || mCursor.getCount() == 0) {
-                return 1;
-            }
-            return mCursor.getCount();
+        @Override
+        protected EventDiff doInBackground(Void... params) {
+            return EventDiff.compute(mOldEvents, mNewEvents);
         }
 
-        EventItem getItem(int index) {
-            if (mCursor == null || mCursor.getCount() == 0) {
-                return new NoEventItem(null, mTimeMillis);
-            }
-            mCursor.moveToPosition(index);
-            return new EventItem(mTimeMillis, mCursor);
+        @Override
+        protected void onPostExecute(EventDiff diff) {
+            mAdapter.applyDiff(mGroup, mOldEvents, mNewEvents, diff);
         }
+    }
 
-        void setCursor(EventCursor cursor, EventObserver eventObserver) {
-            deactivate();
-            cursor.registerContentObserver(mContentObserver);
-            mCursor = cursor;
-            mEventObserver = eventObserver;
+    /**
+     * Runs tasks one at a time on the thread pool, in the order they were submitted.
+     */
+    static class SerialExecutor implements Executor {
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+        private Runnable mActive;
+
+        @Override
+        public synchronized void execute(final Runnable command) {
+            mTasks.offer(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+            if (mActive == null) {
+                scheduleNext();
+            }
         }
 
-        void deactivate() {
-            mLastCursorCount = 0;
-            if (mCursor != null) {
-                mCursor.unregisterContentObserver(mContentObserver);
-                mCursor.close();
-                mCursor = null;
-                mEventObserver = null;
+        private synchronized void scheduleNext() {
+            mActive = mTasks.poll();
+            if (mActive != null) {
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(mActive);
             }
         }
     }
@@ -582,36 +945,22 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
         static final int DISPLAY_TYPE_ALL_DAY = 1;
         static final int DISPLAY_TYPE_END_TIME = 2;
 
-        public static Creator<EventItem> CREATOR = new Creator<EventItem>() {
-            @Override
-            public EventItem createFromParcel(Parcel source) {
-                return new EventItem(source);
-            }
-
-            @Override
-            public EventItem[] newArray(int size) {
-                return new EventItem[size];
-            }
-        };
-
         long mId;
         long mCalendarId;
         long mStartTimeMillis;
         long mEndTimeMillis;
         boolean mIsAllDay;
+        boolean mIsRecurring;
         int mDisplayType = DISPLAY_TYPE_START_TIME;
 
-        EventItem(long timeMillis, EventCursor cursor) {
-            super(cursor.getTitle(), timeMillis);
-            mId = cursor.getId();
-            mCalendarId = cursor.getCalendarId();
-            mStartTimeMillis = cursor.getDateTimeStart();
-            mEndTimeMillis = cursor.getDateTimeEnd();
-            mIsAllDay = cursor.getAllDay();
-            if (mIsAllDay) {
-                mStartTimeMillis = CalendarUtils.toLocalTimeZone(mStartTimeMillis);
-                mEndTimeMillis = CalendarUtils.toLocalTimeZone(mEndTimeMillis);
-            }
+        EventItem(long timeMillis, EventSnapshot events, int row) {
+            super(events.getTitle(row), timeMillis);
+            mId = events.getId(row);
+            mCalendarId = events.getCalendarId(row);
+            mStartTimeMillis = events.getStartTimeMillis(row);
+            mEndTimeMillis = events.getEndTimeMillis(row);
+            mIsAllDay = events.isAllDay(row);
+            mIsRecurring = events.isRecurring(row);
             setDisplayType();
         }
 
@@ -619,33 +968,12 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
             super(title, timeMillis);
         }
 
-        private EventItem(Parcel source) {
-            super(source);
-            mId = source.readLong();
-            mCalendarId = source.readLong();
-            mStartTimeMillis = source.readLong();
-            mEndTimeMillis = source.readLong();
-            mIsAllDay = source.readInt() == 1;
-            mDisplayType = source.readInt();
-        }
-
-        @Override
-        public void writeToParcel(Parcel dest, int flags) {
-            super.writeToParcel(dest, flags);
-            dest.writeLong(mId);
-            dest.writeLong(mCalendarId);
-            dest.writeLong(mStartTimeMillis);
-            dest.writeLong(mEndTimeMillis);
-            dest.writeInt(mIsAllDay ? 1 : 0);
-            dest.writeInt(mDisplayType);
-        }
-
         private void setDisplayType() {
             if (mIsAllDay) {
                 mDisplayType = DISPLAY_TYPE_ALL_DAY;
             } else if (mStartTimeMillis >= mTimeMillis) {
                 mDisplayType = DISPLAY_TYPE_START_TIME;
-            } else if (mEndTimeMillis < mTimeMillis + DateUtils.DAY_IN_MILLIS) {
+            } else if (mEndTimeMillis < CalendarUtils.addDays(mTimeMillis, 1)) {
                 mDisplayType = DISPLAY_TYPE_END_TIME;
             } else {
                 mDisplayType = DISPLAY_TYPE_ALL_DAY;
@@ -654,26 +982,10 @@ public abstract class AgendaAdapter extends RecyclerView.Adapter<AgendaAdapter.R
     }
 
     static class NoEventItem extends EventItem {
-        public static Creator<NoEventItem> CREATOR = new Creator<NoEventItem>() {
-            @Override
-            public NoEventItem createFromParcel(Parcel source) {
-                return new NoEventItem(source);
-            }
-
-            @Override
-            public NoEventItem[] newArray(int size) {
-                return new NoEventItem[size];
-            }
-        };
-
         NoEventItem(String title, long timeMillis) {
             super(title, timeMillis);
             mStartTimeMillis = timeMillis;
             mEndTimeMillis = timeMillis;
         }
-
-        NoEventItem(Parcel source) {
-            super(source);
-        }
     }
 }
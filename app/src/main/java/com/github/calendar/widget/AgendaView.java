@@ -22,13 +22,54 @@ import com.github.calendar.weather.WeatherPojo;
 public class AgendaView extends RecyclerView {
     private static final String STATE_VIEW = "state:view";
     private static final String STATE_ADAPTER = "state:adapter";
+    private static final int PREFETCH_MIN_DAYS = 3;
+    private static final int PREFETCH_MAX_DAYS = AgendaAdapter.BLOCK_SIZE / 2;
+    private static final int PREFETCH_FRAMES = 30;
 
     private OnDateChangeListener mListener;
     private AgendaAdapter mAdapter;
+    // day being scrolled to, resolved to a position again whenever rows shift above it
+    private long mPendingDayMillis = CalendarUtils.NO_TIME_MILLIS;
     private int mPendingScrollPosition = NO_POSITION;
     private long mPrevTimeMillis = CalendarUtils.NO_TIME_MILLIS;
     private Bundle mAdapterSavedState;
+    private int mPrefetchDays = PREFETCH_MIN_DAYS;
     private final int[] mColors;
+    private final Runnable mSettleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mAdapter == null || CalendarUtils.isNotTime(mPendingDayMillis)) {
+                return;
+            }
+            int position = mAdapter.getPosition(getContext(), mPendingDayMillis);
+            if (position < 0) {
+                return;
+            }
+            mPendingScrollPosition = position;
+            smoothScrollToPosition(position);
+        }
+    };
+    private final AdapterDataObserver mPendingScrollObserver = new AdapterDataObserver() {
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            onItemsShifted(positionStart);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            onItemsShifted(positionStart);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            onItemsShifted(Math.min(fromPosition, toPosition));
+        }
+
+        @Override
+        public void onChanged() {
+            onItemsShifted(0);
+        }
+    };
 
     public interface OnDateChangeListener {
         void onSelectedDayChange(long dayMillis);
@@ -58,7 +99,8 @@ public class AgendaView extends RecyclerView {
         Bundle outState = new Bundle();
         outState.putParcelable(STATE_VIEW, super.onSaveInstanceState());
         if (mAdapter != null) {
-            outState.putBundle(STATE_ADAPTER, mAdapter.saveState());
+            outState.putBundle(STATE_ADAPTER, mAdapter.saveState(
+                    getLinearLayoutManager().findFirstVisibleItemPosition()));
         }
         return outState;
     }
@@ -73,7 +115,8 @@ public class AgendaView extends RecyclerView {
     @Override
     public void onScrolled(int dx, int dy) {
         if (dy != 0) {
-            loadMore();
+            updatePrefetchDistance(dy);
+            loadMore(dy);
             notifyDateChange();
         }
     }
@@ -81,9 +124,11 @@ public class AgendaView extends RecyclerView {
     @Override
     public void onScrollStateChanged(int state) {
         super.onScrollStateChanged(state);
-        if (state == SCROLL_STATE_IDLE && mPendingScrollPosition != NO_POSITION) {
-            mPendingScrollPosition = NO_POSITION;
-            mAdapter.unlockBinding();
+        if (state == SCROLL_STATE_IDLE) {
+            mPrefetchDays = PREFETCH_MIN_DAYS;
+        }
+        if (state == SCROLL_STATE_IDLE && !CalendarUtils.isNotTime(mPendingDayMillis)) {
+            clearPendingScroll();
         }
     }
 
@@ -92,10 +137,15 @@ public class AgendaView extends RecyclerView {
         if (adapter != null && !(adapter instanceof AgendaAdapter)) {
             throw new IllegalArgumentException("Adapter must be an instance of AgendaAdapter");
         }
+        if (mAdapter != null) {
+            mAdapter.unregisterAdapterDataObserver(mPendingScrollObserver);
+        }
+        clearPendingScroll();
         mAdapter = (AgendaAdapter) adapter;
         if (mAdapter != null) {
+            mAdapter.registerAdapterDataObserver(mPendingScrollObserver);
             if (mAdapterSavedState != null) {
-                mAdapter.restoreState(mAdapterSavedState);
+                mAdapter.restoreState(getContext(), mAdapterSavedState);
                 mAdapterSavedState = null;
             } else {
                 mAdapter.append(getContext());
@@ -110,14 +160,42 @@ public class AgendaView extends RecyclerView {
         mListener = listener;
     }
 
+    /**
+     * Scrolls to the day containing {@code dayMillis}. Days more than a screen away are
+     * jumped to first, so that only the last screen is animated and bound on the way.
+     */
     public void setSelectedDay(long dayMillis) {
         if (mAdapter == null) {
             return;
         }
-        mPendingScrollPosition = mAdapter.getPosition(getContext(), dayMillis);
-        if (mPendingScrollPosition >= 0) {
-            mAdapter.lockBinding();
-            smoothScrollToPosition(mPendingScrollPosition);
+        stopScroll();
+        clearPendingScroll();
+        boolean forward = CalendarUtils.isNotTime(mPrevTimeMillis) ||
+                dayMillis > mPrevTimeMillis;
+        int first = getLinearLayoutManager().findFirstVisibleItemPosition(), position;
+        if (mAdapter.isWithinReach(dayMillis)) {
+            position = mAdapter.getPosition(getContext(), dayMillis);
+        } else {
+            // far days get a new window around them, the old positions mean nothing
+            position = mAdapter.moveTo(getContext(), dayMillis);
+            first = NO_POSITION;
+        }
+        if (position < 0) {
+            return;
+        }
+        // binding stays enabled, at most a screen of rows is passed on the way, and rows
+        // loaded above the day on the way move the target along
+        mPendingDayMillis = dayMillis;
+        mPendingScrollPosition = position;
+        int rows = Math.max(getChildCount(), 1);
+        if (first < 0 || Math.abs(position - first) > rows) {
+            getLinearLayoutManager().scrollToPositionWithOffset(forward ?
+                    Math.max(position - rows, 0) :
+                    Math.min(position + rows, mAdapter.getItemCount() - 1), 0);
+            // settle once the jump has been laid out
+            post(mSettleRunnable);
+        } else {
+            smoothScrollToPosition(position);
         }
     }
 
@@ -128,12 +206,11 @@ public class AgendaView extends RecyclerView {
     }
 
     public void reset() {
-        mPendingScrollPosition = NO_POSITION;
+        clearPendingScroll();
         mPrevTimeMillis = CalendarUtils.NO_TIME_MILLIS;
         mAdapterSavedState = null;
         if (mAdapter != null) {
             int originalCount = mAdapter.getItemCount();
-            mAdapter.lockBinding();
             mAdapter.deactivate();
             mAdapter.notifyItemRangeRemoved(0, originalCount);
             mAdapter.append(getContext());
@@ -142,12 +219,6 @@ public class AgendaView extends RecyclerView {
         }
     }
 
-    public void invalidateData() {
-        if (mAdapter != null) {
-            mAdapter.invalidate();
-        }
-    }
-
     private void init() {
         setHasFixedSize(false);
         setLayoutManager(new AgendaLinearLayoutManager(getContext()));
@@ -155,20 +226,64 @@ public class AgendaView extends RecyclerView {
         setItemAnimator(null);
     }
 
+    private void onItemsShifted(int positionStart) {
+        if (!CalendarUtils.isNotTime(mPendingDayMillis) &&
+                positionStart <= mPendingScrollPosition) {
+            // settle again once the change is laid out
+            removeCallbacks(mSettleRunnable);
+            post(mSettleRunnable);
+        }
+    }
+
+    private void clearPendingScroll() {
+        removeCallbacks(mSettleRunnable);
+        mPendingDayMillis = CalendarUtils.NO_TIME_MILLIS;
+        mPendingScrollPosition = NO_POSITION;
+    }
+
     private LinearLayoutManager getLinearLayoutManager() {
         return (LinearLayoutManager) getLayoutManager();
     }
 
-    void loadMore() {
+    void loadMore(int dy) {
         if (mAdapter == null) {
             return;
         }
-        if (getLinearLayoutManager().findFirstVisibleItemPosition() == 0) {
+        int first = getLinearLayoutManager().findFirstVisibleItemPosition(),
+                last = getLinearLayoutManager().findLastVisibleItemPosition();
+        int firstDay = mAdapter.getDayIndex(first), lastDay = mAdapter.getDayIndex(last);
+        if (firstDay < 0 || lastDay < 0) {
+            return;
+        }
+        // layout positions are stale until the next pass, so prefetch on the next frame
+        if (dy < 0 && firstDay <= mPrefetchDays) {
             mAdapter.prepend(getContext());
-        } else if (getLinearLayoutManager().findLastVisibleItemPosition()
-                == mAdapter.getItemCount() - 1) {
+        } else if (dy > 0 && lastDay >= mAdapter.getDayCount() - 1 - mPrefetchDays) {
             mAdapter.append(getContext());
+        } else if (dy < 0) {
+            mAdapter.prefetch(first, -mPrefetchDays);
+        } else {
+            mAdapter.prefetch(last, mPrefetchDays);
+        }
+    }
+
+    // look further ahead the faster we go: days covered in about half a second, with
+    // the height of a day averaged over the visible ones since days differ in rows
+    private void updatePrefetchDistance(int dy) {
+        if (mAdapter == null || getHeight() <= 0) {
+            return;
+        }
+        int firstDay = mAdapter.getDayIndex(
+                getLinearLayoutManager().findFirstVisibleItemPosition()),
+                lastDay = mAdapter.getDayIndex(
+                        getLinearLayoutManager().findLastVisibleItemPosition());
+        if (firstDay < 0 || lastDay < 0) {
+            return;
         }
+        int visibleDays = lastDay - firstDay + 1;
+        int days = PREFETCH_MIN_DAYS +
+                (int) ((long) Math.abs(dy) * PREFETCH_FRAMES * visibleDays / getHeight());
+        mPrefetchDays = Math.max(mPrefetchDays, Math.min(days, PREFETCH_MAX_DAYS));
     }
 
     private void notifyDateChange() {
@@ -179,7 +294,7 @@ public class AgendaView extends RecyclerView {
         long timeMillis = mAdapter.getAdapterItem(position).mTimeMillis;
         if (mPrevTimeMillis != timeMillis) {
             mPrevTimeMillis = timeMillis;
-            if (mPendingScrollPosition == NO_POSITION && mListener != null) {
+            if (CalendarUtils.isNotTime(mPendingDayMillis) && mListener != null) {
                 mListener.onSelectedDayChange(timeMillis);
             }
         }
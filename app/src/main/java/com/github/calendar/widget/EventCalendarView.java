@@ -1,14 +1,14 @@
 package com.github.calendar.widget;
 
 import android.content.Context;
-import android.database.ContentObserver;
-import android.os.Handler;
 import android.support.v4.view.ViewPager;
 import android.util.AttributeSet;
 import android.view.View;
 
 import com.github.calendar.CalendarUtils;
-import com.github.calendar.content.EventCursor;
+import com.github.calendar.ViewUtils;
+import com.github.calendar.content.DayPresence;
+import com.github.calendar.content.EventIndex;
 
 public class EventCalendarView extends ViewPager {
 
@@ -20,6 +20,13 @@ public class EventCalendarView extends ViewPager {
                     notifyDayChange(dayMillis);
                 }
             };
+    private final EventIndex.OnInvalidateListener mInvalidateListener =
+            new EventIndex.OnInvalidateListener() {
+                @Override
+                public void onInvalidate() {
+                    invalidateData();
+                }
+            };
     private MonthViewPagerAdapter mPagerAdapter;
     private OnChangeListener mListener;
     private CalendarAdapter mCalendarAdapter;
@@ -38,8 +45,11 @@ public class EventCalendarView extends ViewPager {
         protected void loadEvents(long monthMillis) {
         }
 
-        public final void bindEvents(long monthMillis, EventCursor cursor) {
-            mCalendarView.swapCursor(monthMillis, cursor);
+        protected void retainEvents(long firstMonthMillis, long lastMonthMillis) {
+        }
+
+        public final void bindEvents(long monthMillis) {
+            mCalendarView.bindEvents(monthMillis);
         }
     }
 
@@ -52,6 +62,18 @@ public class EventCalendarView extends ViewPager {
         init();
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        EventIndex.getInstance().addOnInvalidateListener(mInvalidateListener);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        EventIndex.getInstance().removeOnInvalidateListener(mInvalidateListener);
+        super.onDetachedFromWindow();
+    }
+
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
@@ -86,6 +108,14 @@ public class EventCalendarView extends ViewPager {
         loadEvents(getCurrentItem());
     }
 
+    /**
+     * Marks event days of months not loaded yet from {@code presence}, saved by
+     * {@link com.github.calendar.content.EventSnapshotFile}, or stops if it is null.
+     */
+    public void setDayPresence(DayPresence presence) {
+        mPagerAdapter.setDayPresence(presence);
+    }
+
     public void deactivate() {
         mPagerAdapter.deactivate();
     }
@@ -102,7 +132,8 @@ public class EventCalendarView extends ViewPager {
     }
 
     private void init() {
-        mPagerAdapter = new MonthViewPagerAdapter(mDateChangeListener);
+        mPagerAdapter = new MonthViewPagerAdapter(mDateChangeListener,
+                ViewUtils.getCalendarDotColors(getContext()));
         setAdapter(mPagerAdapter);
         setCurrentItem(mPagerAdapter.getCount() / 2);
         addOnPageChangeListener(new SimpleOnPageChangeListener() {
@@ -148,9 +179,11 @@ public class EventCalendarView extends ViewPager {
         if (position == last) {
             mPagerAdapter.shiftLeft();
             setCurrentItem(first + 1, false);
+            retainEvents();
         } else if (position == 0) {
             mPagerAdapter.shiftRight();
             setCurrentItem(last - 1, false);
+            retainEvents();
         } else {
             if (position > 0) {
                 mPagerAdapter.bind(position - 1);
@@ -161,36 +194,20 @@ public class EventCalendarView extends ViewPager {
         }
     }
 
-    private void loadEvents(int position) {
-        if (mCalendarAdapter != null && mPagerAdapter.getCursor(position) == null) {
-            mCalendarAdapter.loadEvents(mPagerAdapter.getMonth(position));
+    private void retainEvents() {
+        if (mCalendarAdapter != null) {
+            mCalendarAdapter.retainEvents(mPagerAdapter.getMonth(0),
+                    mPagerAdapter.getMonth(mPagerAdapter.getCount() - 1));
         }
     }
 
-    private void swapCursor(long monthMillis, EventCursor cursor) {
-        mPagerAdapter.swapCursor(monthMillis, cursor, new PagerContentObserver(monthMillis));
-    }
-
-    class PagerContentObserver extends ContentObserver {
-
-        private final long monthMillis;
-
-        public PagerContentObserver(long monthMillis) {
-            super(new Handler());
-            this.monthMillis = monthMillis;
-        }
-
-        @Override
-        public boolean deliverSelfNotifications() {
-            return true;
+    private void loadEvents(int position) {
+        if (mCalendarAdapter != null && !mPagerAdapter.isLoaded(position)) {
+            mCalendarAdapter.loadEvents(mPagerAdapter.getMonth(position));
         }
+    }
 
-        @Override
-        public void onChange(boolean selfChange) {
-            mPagerAdapter.swapCursor(monthMillis, null, null);
-            if (CalendarUtils.sameMonth(monthMillis, mPagerAdapter.getMonth(getCurrentItem()))) {
-                loadEvents(getCurrentItem());
-            }
-        }
+    private void bindEvents(long monthMillis) {
+        mPagerAdapter.bindEvents(monthMillis);
     }
 }
@@ -0,0 +1,128 @@
+package com.github.calendar.widget;
+
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+
+import java.util.Arrays;
+
+import com.github.calendar.content.EventSnapshot;
+
+/**
+ * Update operations turning one day's event rows into another's, matched by event id
+ * and start time. Operations apply in order, each in the positions left by the previous.
+ */
+class EventDiff {
+    private static final int REMOVE = 0;
+    private static final int MOVE = 1;
+    private static final int INSERT = 2;
+    private static final int CHANGE = 3;
+
+    private int[] mOps = new int[24];
+    private int mSize;
+
+    static EventDiff compute(EventSnapshot oldEvents, EventSnapshot newEvents) {
+        EventDiff diff = new EventDiff();
+        int oldSize = oldEvents.size(), newSize = newEvents.size();
+        int[] newIndices = new int[oldSize], oldIndices = new int[newSize];
+        Arrays.fill(oldIndices, -1);
+        for (int i = 0; i < oldSize; i++) {
+            newIndices[i] = -1;
+            for (int j = 0; j < newSize; j++) {
+                if (oldIndices[j] < 0 && sameEvent(oldEvents, i, newEvents, j)) {
+                    newIndices[i] = j;
+                    oldIndices[j] = i;
+                    break;
+                }
+            }
+        }
+        // rows still present, in their current order, as old indices
+        int[] current = new int[oldSize];
+        int count = 0;
+        for (int i = 0; i < oldSize; i++) {
+            current[count++] = i;
+        }
+        for (int i = oldSize - 1; i >= 0; i--) {
+            if (newIndices[i] < 0) {
+                diff.add(REMOVE, i, 0);
+                System.arraycopy(current, i + 1, current, i, --count - i);
+            }
+        }
+        int position = 0;
+        for (int j = 0; j < newSize; j++) {
+            int oldIndex = oldIndices[j];
+            if (oldIndex < 0) {
+                continue;
+            }
+            if (current[position] != oldIndex) {
+                int from = position + 1;
+                while (current[from] != oldIndex) {
+                    from++;
+                }
+                System.arraycopy(current, position, current, position + 1, from - position);
+                current[position] = oldIndex;
+                diff.add(MOVE, from, position);
+            }
+            position++;
+        }
+        for (int j = 0; j < newSize; j++) {
+            if (oldIndices[j] < 0) {
+                diff.add(INSERT, j, 0);
+            }
+        }
+        for (int j = 0; j < newSize; j++) {
+            if (oldIndices[j] >= 0 && !sameContent(oldEvents, oldIndices[j], newEvents, j)) {
+                diff.add(CHANGE, j, 0);
+            }
+        }
+        return diff;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    void dispatch(RecyclerView.Adapter adapter, int offset) {
+        for (int i = 0; i < mSize; i += 3) {
+            int first = mOps[i + 1] + offset;
+            switch (mOps[i]) {
+                case REMOVE:
+                    adapter.notifyItemRemoved(first);
+                    break;
+                case MOVE:
+                    adapter.notifyItemMoved(first, mOps[i + 2] + offset);
+                    break;
+                case INSERT:
+                    adapter.notifyItemInserted(first);
+                    break;
+                case CHANGE:
+                default:
+                    adapter.notifyItemChanged(first);
+                    break;
+            }
+        }
+    }
+
+    private static boolean sameEvent(EventSnapshot oldEvents, int oldRow,
+                                     EventSnapshot newEvents, int newRow) {
+        return oldEvents.getId(oldRow) == newEvents.getId(newRow) &&
+                oldEvents.getStartTimeMillis(oldRow) == newEvents.getStartTimeMillis(newRow);
+    }
+
+    private static boolean sameContent(EventSnapshot oldEvents, int oldRow,
+                                       EventSnapshot newEvents, int newRow) {
+        return oldEvents.getEndTimeMillis(oldRow) == newEvents.getEndTimeMillis(newRow) &&
+                oldEvents.getCalendarId(oldRow) == newEvents.getCalendarId(newRow) &&
+                oldEvents.isAllDay(oldRow) == newEvents.isAllDay(newRow) &&
+                oldEvents.isRecurring(oldRow) == newEvents.isRecurring(newRow) &&
+                TextUtils.equals(oldEvents.getTitle(oldRow), newEvents.getTitle(newRow));
+    }
+
+    private void add(int op, int first, int second) {
+        if (mSize + 3 > mOps.length) {
+            mOps = Arrays.copyOf(mOps, mOps.length * 2);
+        }
+        mOps[mSize++] = op;
+        mOps[mSize++] = first;
+        mOps[mSize++] = second;
+    }
+}
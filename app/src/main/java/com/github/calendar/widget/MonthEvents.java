@@ -0,0 +1,92 @@
+package com.github.calendar.widget;
+
+import com.github.calendar.CalendarUtils;
+import com.github.calendar.EpochDay;
+import com.github.calendar.content.DayPresence;
+import com.github.calendar.content.EventIndex;
+import com.github.calendar.content.EventSnapshot;
+
+/**
+ * Which days of a month have events, as one bit per day of the month, how many, and
+ * from which calendars, as one bit per calendar color.
+ */
+class MonthEvents {
+    final long eventDays;
+    final int[] counts;
+    final int[] calendars;
+
+    MonthEvents(long eventDays, int[] counts, int[] calendars) {
+        this.eventDays = eventDays;
+        this.counts = counts;
+        this.calendars = calendars;
+    }
+
+    /**
+     * Summarizes the indexed events of the month containing {@code monthMillis}, with
+     * calendars colored from a palette of {@code colorCount} colors, at most 32.
+     */
+    static MonthEvents query(long monthMillis, int colorCount) {
+        long baseTimeMillis = CalendarUtils.monthFirstDay(monthMillis);
+        int days = CalendarUtils.monthSize(monthMillis);
+        EventSnapshot events = EventIndex.getInstance().query(baseTimeMillis,
+                CalendarUtils.addDays(baseTimeMillis, days));
+        long eventDays = 0;
+        int[] counts = new int[days], calendars = new int[days];
+        int colors = Math.max(Math.min(colorCount, Integer.SIZE), 1);
+        for (int row = 0; row < events.size(); row++) {
+            int startIndex = CalendarUtils.daysBetween(baseTimeMillis,
+                    events.getStartTimeMillis(row));
+            int endIndex = CalendarUtils.daysBetween(baseTimeMillis,
+                    events.getEndTimeMillis(row));
+            if (events.isAllDay(row)) {
+                // all-day events end at the start of the following day
+                endIndex--;
+            }
+            // same color slot as the agenda picks for the calendar
+            int calendar = 1 << (int) (Math.abs(events.getCalendarId(row)) % colors);
+            startIndex = Math.max(startIndex, 0);
+            endIndex = Math.min(endIndex, days - 1);
+            for (int dayIndex = startIndex; dayIndex <= endIndex; dayIndex++) {
+                eventDays |= 1L << dayIndex;
+                counts[dayIndex]++;
+                calendars[dayIndex] |= calendar;
+            }
+        }
+        return new MonthEvents(eventDays, counts, calendars);
+    }
+
+    /**
+     * Marks the event days of the month containing {@code monthMillis} from saved
+     * presence bits, with one dot in the accent color each, or returns null if
+     * {@code presence} does not cover the whole month.
+     */
+    static MonthEvents fromPresence(DayPresence presence, long monthMillis) {
+        int firstDay = EpochDay.fromMillis(CalendarUtils.monthFirstDay(monthMillis)),
+                days = CalendarUtils.monthSize(monthMillis);
+        if (presence == null || !presence.covers(firstDay, days)) {
+            return null;
+        }
+        long eventDays = 0;
+        int[] counts = new int[days];
+        for (int dayIndex = 0; dayIndex < days; dayIndex++) {
+            if (presence.hasEvents(firstDay + dayIndex)) {
+                eventDays |= 1L << dayIndex;
+                counts[dayIndex] = 1;
+            }
+        }
+        // no calendar bits, dots fall back to the accent color
+        return new MonthEvents(eventDays, counts, new int[days]);
+    }
+
+    boolean hasEvents(int dayIndex) {
+        return (eventDays & 1L << dayIndex) != 0;
+    }
+
+    int getCount(int dayIndex) {
+        return dayIndex < counts.length ? counts[dayIndex] : 0;
+    }
+
+    int getCalendars(int dayIndex) {
+        return dayIndex < calendars.length ? calendars[dayIndex] : 0;
+    }
+}
@@ -1,34 +1,70 @@
 package com.github.calendar.widget;
 
 import android.content.Context;
-import android.support.v7.widget.GridLayoutManager;
-import android.support.v7.widget.RecyclerView;
-import android.text.SpannableString;
-import android.text.Spanned;
-import android.text.format.DateUtils;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.view.ViewCompat;
+import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+import android.support.v4.widget.ExploreByTouchHelper;
 import android.util.AttributeSet;
-import android.view.LayoutInflater;
+import android.view.MotionEvent;
+import android.view.SoundEffectConstants;
 import android.view.View;
-import android.view.ViewGroup;
-import android.widget.TextView;
+import android.view.accessibility.AccessibilityEvent;
 
 import java.text.DateFormatSymbols;
 import java.util.Calendar;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
+import java.util.Locale;
 
 import com.github.calendar.CalendarUtils;
 import com.github.calendar.R;
-import com.github.calendar.content.EventCursor;
-import com.github.calendar.style.Circle;
-import com.github.calendar.style.Dot;
 
-class MonthView extends RecyclerView {
+/**
+ * Month grid drawn straight to the canvas: a row of weekday headers followed by day
+ * numbers, with a circle behind the selected day and up to three dots under days with
+ * events, one per event in the colors of their calendars.
+ */
+class MonthView extends View {
     private static final int SPANS_COUNT = 7;
+    private static final int NO_DAY = -1;
+    private static final int MAX_DOTS = 3;
+    // day numbers of a month, drawn without formatting on every pass
+    private static final String[] DAY_STRINGS = new String[31];
+
+    // short weekday names, shared by all months and looked up again if the locale changed
+    private static String[] sWeekdays;
+    private static Locale sWeekdaysLocale;
+
+    static {
+        for (int i = 0; i < DAY_STRINGS.length; i++) {
+            DAY_STRINGS[i] = String.valueOf(i + 1);
+        }
+    }
+
     long mMonthMillis;
-    private GridAdapter mAdapter;
+    private long mBaseTimeMillis;
+    private int mStartOffset;
+    private int mDays;
+    private MonthEvents mEvents;
+    private int mSelectedDay = NO_DAY;
+    private int mPressedDay = NO_DAY;
     private OnDateChangeListener mListener;
+    private final String[] mWeekdays;
+    private final Paint mHeaderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mDayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mSelectedDayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mAccentPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mDotPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private int[] mDotColors;
+    private final int mCellHeight;
+    private final float mCircleRadius;
+    private final float mDotRadius;
+    private final DayTouchHelper mTouchHelper;
 
     interface OnDateChangeListener {
         void onSelectedDayChange(long dayMillis);
@@ -44,17 +80,40 @@ class MonthView extends RecyclerView {
 
     public MonthView(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
-        init();
+        mWeekdays = getWeekdays();
+        TypedArray ta = context.getTheme().obtainStyledAttributes(new int[]{
+                R.attr.colorAccent,
+                R.attr.listPreferredItemHeightSmall,
+                android.R.attr.textColorPrimaryInverse
+        });
+        mAccentPaint.setColor(ta.getColor(0,
+                ContextCompat.getColor(context, R.color.greenA700)));
+        mDotColors = new int[]{mAccentPaint.getColor()};
+        mCellHeight = ta.getDimensionPixelSize(1, 0);
+        mSelectedDayPaint.setColor(ta.getColor(2, 0));
+        ta.recycle();
+        initTextPaint(mHeaderPaint, R.style.TextAppearance_AppCompat_Caption);
+        initTextPaint(mDayPaint, R.style.TextAppearance_AppCompat_Body1);
+        mSelectedDayPaint.setTextSize(mDayPaint.getTextSize());
+        mSelectedDayPaint.setTextAlign(Paint.Align.CENTER);
+        mCircleRadius = mDayPaint.measureText(DAY_STRINGS[DAY_STRINGS.length - 1]) / 2 +
+                context.getResources().getDimension(R.dimen.padding_circle);
+        mDotRadius = context.getResources().getDimension(R.dimen.dot_size) / 2;
+        mTouchHelper = new DayTouchHelper(this);
+        ViewCompat.setAccessibilityDelegate(this, mTouchHelper);
+        setCalendar(CalendarUtils.today());
     }
 
     void setOnDateChangeListener(OnDateChangeListener listener) {
         mListener = listener;
     }
 
-    private void init() {
-        setLayoutManager(new GridLayoutManager(getContext(), SPANS_COUNT));
-        setHasFixedSize(true);
-        setCalendar(CalendarUtils.today());
+    /**
+     * Sets dot colors, indexed by the calendar bits of {@link MonthEvents}.
+     */
+    void setCalendarColors(int[] colors) {
+        mDotColors = colors;
+        invalidate();
     }
 
     void setCalendar(long monthMillis) {
@@ -64,207 +123,272 @@ class MonthView extends RecyclerView {
         if (CalendarUtils.sameMonth(mMonthMillis, monthMillis)) {
             return;
         }
+        int rows = getRowCount();
         mMonthMillis = monthMillis;
-        mAdapter = new GridAdapter(monthMillis);
-        mAdapter.registerAdapterDataObserver(new AdapterDataObserver() {
-            @Override
-            public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
-                if (mListener == null) {
-                    return;
-                }
-                if (payload instanceof SelectionPayload) {
-                    mListener.onSelectedDayChange(((SelectionPayload) payload).timeMillis);
-                }
-            }
-        });
-        setAdapter(mAdapter);
+        mBaseTimeMillis = CalendarUtils.monthFirstDay(monthMillis);
+        mStartOffset = CalendarUtils.monthFirstDayOffset(mBaseTimeMillis);
+        mDays = CalendarUtils.monthSize(monthMillis);
+        mEvents = null;
+        mSelectedDay = NO_DAY;
+        mPressedDay = NO_DAY;
+        if (getRowCount() != rows) {
+            requestLayout();
+        }
+        invalidate();
+        mTouchHelper.invalidateRoot();
     }
 
     void setSelectedDay(long dayMillis) {
         if (CalendarUtils.isNotTime(mMonthMillis)) {
             return;
         }
-        if (CalendarUtils.isNotTime(dayMillis)) {
-            mAdapter.setSelectedDay(CalendarUtils.NO_TIME_MILLIS);
-        } else if (CalendarUtils.sameMonth(mMonthMillis, dayMillis)) {
-            mAdapter.setSelectedDay(dayMillis);
+        if (!CalendarUtils.isNotTime(dayMillis) &&
+                CalendarUtils.sameMonth(mMonthMillis, dayMillis)) {
+            setSelectedIndex(CalendarUtils.dayOfMonth(dayMillis) - 1, false);
         } else {
-            mAdapter.setSelectedDay(CalendarUtils.NO_TIME_MILLIS);
+            setSelectedIndex(NO_DAY, false);
         }
     }
 
-    void swapCursor(EventCursor cursor) {
-        mAdapter.swapCursor(cursor);
+    /**
+     * Shows dots for the days in {@code events}, or none if it is null.
+     */
+    void setEvents(MonthEvents events) {
+        if (events != mEvents) {
+            mEvents = events;
+            invalidate();
+        }
     }
 
-    static class GridAdapter extends Adapter<CellViewHolder> {
-        private static final int VIEW_TYPE_HEADER = 0;
-        private static final int VIEW_TYPE_CONTENT = 1;
-        private final String[] mWeekdays;
-        private final int mStartOffset;
-        private final int mDays;
-        private final long mBaseTimeMillis;
-        final Set<Integer> mEvents = new HashSet<>();
-        private EventCursor mCursor;
-        private int mSelectedPosition = -1;
-
-        public GridAdapter(long monthMillis) {
-            mWeekdays = DateFormatSymbols.getInstance().getShortWeekdays();
-            mBaseTimeMillis = CalendarUtils.monthFirstDay(monthMillis);
-            mStartOffset = CalendarUtils.monthFirstDayOffset(mBaseTimeMillis) + SPANS_COUNT;
-            mDays = mStartOffset + CalendarUtils.monthSize(monthMillis);
-        }
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int height = getRowCount() * mCellHeight + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec),
+                resolveSize(Math.max(height, getSuggestedMinimumHeight()), heightMeasureSpec));
+    }
 
-        @Override
-        public CellViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-            LayoutInflater inflater = LayoutInflater.from(parent.getContext());
-            switch (viewType) {
-                case VIEW_TYPE_HEADER:
-                    return new HeaderViewHolder(inflater.inflate(
-                            R.layout.grid_item_header, parent, false));
-                case VIEW_TYPE_CONTENT:
-                default:
-                    return new ContentViewHolder(inflater.inflate(
-                            R.layout.grid_item_content, parent, false));
-            }
+    @Override
+    protected void onDraw(Canvas canvas) {
+        float cellWidth = getCellWidth();
+        float headerBaseline = getPaddingTop() + getBaselineOffset(mHeaderPaint);
+        for (int column = 0; column < SPANS_COUNT; column++) {
+            canvas.drawText(mWeekdays[column + Calendar.SUNDAY], getCenterX(column, cellWidth),
+                    headerBaseline, mHeaderPaint);
         }
-
-        @Override
-        public void onBindViewHolder(CellViewHolder holder, int position) {
-            if (holder instanceof HeaderViewHolder) {
-                int index;
-                index = position + Calendar.SUNDAY;
-                ((HeaderViewHolder) holder).textView.setText(mWeekdays[index]);
+        for (int day = 0; day < mDays; day++) {
+            int cell = mStartOffset + day;
+            float x = getCenterX(cell % SPANS_COUNT, cellWidth),
+                    top = getPaddingTop() + (cell / SPANS_COUNT + 1) * mCellHeight;
+            float baseline = top + getBaselineOffset(mDayPaint);
+            if (day == mSelectedDay) {
+                canvas.drawCircle(x, top + mCellHeight / 2f, mCircleRadius, mAccentPaint);
+                canvas.drawText(DAY_STRINGS[day], x, baseline, mSelectedDayPaint);
             } else {
-                if (position < mStartOffset) {
-                    ((ContentViewHolder) holder).textView.setText(null);
-                } else {
-                    final int adapterPosition = holder.getAdapterPosition();
-                    TextView textView = ((ContentViewHolder) holder).textView;
-                    int dayIndex = adapterPosition - mStartOffset;
-                    String dayString = String.valueOf(dayIndex + 1);
-                    SpannableString spannable = new SpannableString(dayString);
-                    if (mSelectedPosition == adapterPosition) {
-                        spannable.setSpan(new Circle(textView.getContext()), 0,
-                                dayString.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    } else if (mEvents.contains(dayIndex)) {
-                        spannable.setSpan(new Dot(textView.getContext()),
-                                0, dayString.length(),
-                                Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    }
-                    textView.setText(spannable, TextView.BufferType.SPANNABLE);
-                    textView.setOnClickListener(new OnClickListener() {
-                        @Override
-                        public void onClick(View v) {
-                            setSelectedPosition(adapterPosition, true);
-                        }
-                    });
+                if (mEvents != null && mEvents.hasEvents(day)) {
+                    drawDots(canvas, day, x, baseline + mDayPaint.descent() + mDotRadius * 2);
                 }
+                canvas.drawText(DAY_STRINGS[day], x, baseline, mDayPaint);
             }
         }
+    }
 
-        @Override
-        public int getItemViewType(int position) {
-            if (position < SPANS_COUNT) {
-                return VIEW_TYPE_HEADER;
+    // one dot per event up to MAX_DOTS, cycling through the colors of their calendars
+    private void drawDots(Canvas canvas, int day, float centerX, float centerY) {
+        int dots = Math.min(mEvents.getCount(day), MAX_DOTS);
+        int calendars = mEvents.getCalendars(day), remaining = calendars;
+        float spacing = mDotRadius * 3, left = centerX - (dots - 1) * spacing / 2;
+        for (int i = 0; i < dots; i++) {
+            if (remaining == 0) {
+                remaining = calendars;
             }
-            return VIEW_TYPE_CONTENT;
+            int slot = Integer.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            mDotPaint.setColor(slot < mDotColors.length ?
+                    mDotColors[slot] : mAccentPaint.getColor());
+            canvas.drawCircle(left + i * spacing, centerY, mDotRadius, mDotPaint);
         }
+    }
 
-        @Override
-        public int getItemCount() {
-            return mDays;
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mPressedDay = getDayAt(event.getX(), event.getY());
+                return mPressedDay != NO_DAY;
+            case MotionEvent.ACTION_UP:
+                if (mPressedDay != NO_DAY &&
+                        mPressedDay == getDayAt(event.getX(), event.getY())) {
+                    playSoundEffect(SoundEffectConstants.CLICK);
+                    performClick();
+                    clickDay(mPressedDay);
+                }
+                mPressedDay = NO_DAY;
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                mPressedDay = NO_DAY;
+                return true;
         }
+        return mPressedDay != NO_DAY;
+    }
+
+    @Override
+    public boolean performClick() {
+        // days are clicked through clickDay(), from touches or accessibility actions
+        return super.performClick();
+    }
 
-        void setSelectedDay(long dayMillis) {
-            setSelectedPosition(CalendarUtils.isNotTime(dayMillis) ? -1 :
-                    mStartOffset + CalendarUtils.dayOfMonth(dayMillis) - 1, false);
+    @Override
+    protected boolean dispatchHoverEvent(MotionEvent event) {
+        return mTouchHelper.dispatchHoverEvent(event) || super.dispatchHoverEvent(event);
+    }
+
+    private void clickDay(int day) {
+        setSelectedIndex(day, true);
+        mTouchHelper.sendEventForVirtualView(day, AccessibilityEvent.TYPE_VIEW_CLICKED);
+    }
+
+    private void setSelectedIndex(int day, boolean notifyObservers) {
+        if (day == mSelectedDay) {
+            return;
         }
+        int oldDay = mSelectedDay;
+        mSelectedDay = day;
+        invalidate();
+        if (oldDay != NO_DAY) {
+            mTouchHelper.invalidateVirtualView(oldDay);
+        }
+        if (day != NO_DAY) {
+            mTouchHelper.invalidateVirtualView(day);
+        }
+        if (notifyObservers && day != NO_DAY && mListener != null) {
+            mListener.onSelectedDayChange(CalendarUtils.addDays(mBaseTimeMillis, day));
+        }
+    }
 
-        void swapCursor(EventCursor cursor) {
-            if (mCursor == cursor) {
-                return;
-            }
-            mCursor = cursor;
-            Iterator<Integer> iterator = mEvents.iterator();
-            while (iterator.hasNext()) {
-                int dayIndex = iterator.next();
-                iterator.remove();
-                notifyItemChanged(dayIndex + mStartOffset);
-            }
-            if (!mCursor.moveToFirst()) {
-                return;
-            }
-            do {
-                long start = mCursor.getDateTimeStart();
-                long end = mCursor.getDateTimeEnd();
-                boolean allDay = mCursor.getAllDay();
-                if (allDay) {
-                    start = CalendarUtils.toLocalTimeZone(start);
-                    end = CalendarUtils.toLocalTimeZone(end) - DateUtils.DAY_IN_MILLIS;
-                }
-                int startIndex = (int) ((start - mBaseTimeMillis) / DateUtils.DAY_IN_MILLIS);
-                int endIndex = (int) ((end - mBaseTimeMillis) / DateUtils.DAY_IN_MILLIS);
-                endIndex = Math.min(endIndex, getItemCount() - mStartOffset - 1);
-                for (int dayIndex = startIndex; dayIndex <= endIndex; dayIndex++) {
-                    if (!mEvents.contains(dayIndex)) {
-                        mEvents.add(dayIndex);
-                        notifyItemChanged(dayIndex + mStartOffset);
-                    }
-                }
-            } while (mCursor.moveToNext());
+    private int getDayAt(float x, float y) {
+        float cellWidth = getCellWidth();
+        if (cellWidth <= 0 || mCellHeight <= 0 ||
+                x < getPaddingLeft() || x >= getWidth() - getPaddingRight()) {
+            return NO_DAY;
         }
+        int row = (int) Math.floor((y - getPaddingTop()) / mCellHeight) - 1;
+        int column = Math.min((int) ((x - getPaddingLeft()) / cellWidth), SPANS_COUNT - 1);
+        if (isLayoutRtl()) {
+            column = SPANS_COUNT - 1 - column;
+        }
+        int day = row * SPANS_COUNT + column - mStartOffset;
+        return row < 0 || day < 0 || day >= mDays ? NO_DAY : day;
+    }
 
-        private void setSelectedPosition(int position, boolean notifyObservers) {
-            int last = mSelectedPosition;
-            if (position == last) {
-                return;
-            }
-            mSelectedPosition = position;
-            if (last >= 0) {
-                notifyItemChanged(last);
-            }
-            if (position >= 0) {
-                long timeMillis = mBaseTimeMillis + (mSelectedPosition - mStartOffset) *
-                        DateUtils.DAY_IN_MILLIS;
-                notifyItemChanged(position, notifyObservers ?
-                        new SelectionPayload(timeMillis) : null);
-            }
+    private void getDayBounds(int day, Rect bounds) {
+        float cellWidth = getCellWidth();
+        int cell = mStartOffset + day, column = cell % SPANS_COUNT;
+        if (isLayoutRtl()) {
+            column = SPANS_COUNT - 1 - column;
         }
+        int left = getPaddingLeft() + (int) (column * cellWidth),
+                top = getPaddingTop() + (cell / SPANS_COUNT + 1) * mCellHeight;
+        bounds.set(left, top, getPaddingLeft() + (int) ((column + 1) * cellWidth),
+                top + mCellHeight);
+    }
+
+    private int getRowCount() {
+        // header row plus as many weeks as the month spans
+        return 1 + (mStartOffset + mDays + SPANS_COUNT - 1) / SPANS_COUNT;
     }
 
-    static abstract class CellViewHolder extends RecyclerView.ViewHolder {
+    private float getCellWidth() {
+        return (getWidth() - getPaddingLeft() - getPaddingRight()) / (float) SPANS_COUNT;
+    }
 
-        public CellViewHolder(View itemView) {
-            super(itemView);
+    private float getCenterX(int column, float cellWidth) {
+        if (isLayoutRtl()) {
+            column = SPANS_COUNT - 1 - column;
         }
+        return getPaddingLeft() + (column + 0.5f) * cellWidth;
     }
 
-    static class HeaderViewHolder extends CellViewHolder {
+    // distance from the top of a cell to the baseline of vertically centered text
+    private float getBaselineOffset(Paint paint) {
+        return (mCellHeight - paint.ascent() - paint.descent()) / 2;
+    }
+
+    private boolean isLayoutRtl() {
+        return ViewCompat.getLayoutDirection(this) == ViewCompat.LAYOUT_DIRECTION_RTL;
+    }
 
-        final TextView textView;
+    private void initTextPaint(Paint paint, int textAppearance) {
+        TypedArray ta = getContext().obtainStyledAttributes(textAppearance, new int[]{
+                android.R.attr.textSize,
+                android.R.attr.textColor
+        });
+        paint.setTextSize(ta.getDimensionPixelSize(0, 0));
+        paint.setColor(ta.getColor(1, 0));
+        ta.recycle();
+        paint.setTextAlign(Paint.Align.CENTER);
+    }
 
-        public HeaderViewHolder(View itemView) {
-            super(itemView);
-            textView = (TextView) itemView;
+    /**
+     * Exposes each day of the month as a virtual view, identified by its day index.
+     */
+    private static String[] getWeekdays() {
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(sWeekdaysLocale)) {
+            sWeekdays = DateFormatSymbols.getInstance(locale).getShortWeekdays();
+            sWeekdaysLocale = locale;
         }
+        return sWeekdays;
     }
 
-    static class ContentViewHolder extends CellViewHolder {
+    private class DayTouchHelper extends ExploreByTouchHelper {
+        private final Rect mBounds = new Rect();
 
-        final TextView textView;
+        DayTouchHelper(View host) {
+            super(host);
+        }
 
-        public ContentViewHolder(View itemView) {
-            super(itemView);
-            textView = (TextView) itemView;
+        @Override
+        protected int getVirtualViewAt(float x, float y) {
+            int day = getDayAt(x, y);
+            return day == NO_DAY ? INVALID_ID : day;
         }
-    }
 
-    static class SelectionPayload {
-        final long timeMillis;
+        @Override
+        protected void getVisibleVirtualViews(List<Integer> virtualViewIds) {
+            for (int day = 0; day < mDays; day++) {
+                virtualViewIds.add(day);
+            }
+        }
+
+        @Override
+        protected void onPopulateEventForVirtualView(int virtualViewId,
+                                                     AccessibilityEvent event) {
+            event.setContentDescription(getDescription(virtualViewId));
+        }
+
+        @Override
+        protected void onPopulateNodeForVirtualView(int virtualViewId,
+                                                    AccessibilityNodeInfoCompat node) {
+            getDayBounds(virtualViewId, mBounds);
+            node.setBoundsInParent(mBounds);
+            node.setContentDescription(getDescription(virtualViewId));
+            node.setSelected(virtualViewId == mSelectedDay);
+            node.addAction(AccessibilityNodeInfoCompat.ACTION_CLICK);
+        }
+
+        @Override
+        protected boolean onPerformActionForVirtualView(int virtualViewId, int action,
+                                                        Bundle arguments) {
+            if (action == AccessibilityNodeInfoCompat.ACTION_CLICK) {
+                clickDay(virtualViewId);
+                return true;
+            }
+            return false;
+        }
 
-        public SelectionPayload(long timeMillis) {
-            this.timeMillis = timeMillis;
+        private String getDescription(int day) {
+            return CalendarUtils.toDayString(getContext(),
+                    CalendarUtils.addDays(mBaseTimeMillis, day));
         }
     }
 }
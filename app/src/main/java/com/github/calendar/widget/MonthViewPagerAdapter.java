@@ -1,9 +1,9 @@
 package com.github.calendar.widget;
 
-import android.database.ContentObserver;
 import android.os.Bundle;
 import android.os.Parcelable;
-import android.support.v4.util.ArrayMap;
+import android.support.v4.util.LruCache;
+import android.support.v4.util.Pools;
 import android.support.v4.view.PagerAdapter;
 import android.support.v4.view.ViewPager;
 import android.view.View;
@@ -13,36 +13,49 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.github.calendar.CalendarUtils;
-import com.github.calendar.content.EventCursor;
+import com.github.calendar.EpochDay;
+import com.github.calendar.content.DayPresence;
+import com.github.calendar.content.EventIndex;
 
 class MonthViewPagerAdapter extends PagerAdapter {
     private static final String STATE_FIRST_MONTH_MILLIS = "state:month";
     private static final String STATE_SELECTED_DAY_MILLIS = "state:selectedDay";
     static final int ITEM_COUNT = 5;
+    // paging back and forth through a year is served from memory
+    private static final int MONTH_CACHE_SIZE = 24;
 
     final List<MonthView> mViews = new ArrayList<>(getCount());
     long mSelectedDayMillis = CalendarUtils.today();
-    private final List<Long> mMonths = new ArrayList<>(getCount());
+    private final long[] mMonths = new long[getCount()];
     private final MonthView.OnDateChangeListener mListener;
-    private final List<EventCursor> mCursors = new ArrayList<>(getCount());
-    private final ArrayMap<EventCursor, ContentObserver> mObservers =
-            new ArrayMap<>(getCount());
-
-    public MonthViewPagerAdapter(MonthView.OnDateChangeListener listener) {
+    private final int[] mDotColors;
+    // event days of months fully loaded into the index, by month index
+    private final LruCache<Integer, MonthEvents> mMonthEvents =
+            new LruCache<>(MONTH_CACHE_SIZE);
+    // saved event days shown until months load, on a cold start
+    private DayPresence mDayPresence;
+    // pages the pager let go of, rebound to the next month it asks for
+    private final Pools.Pool<MonthView> mViewPool = new Pools.SimplePool<>(getCount());
+
+    public MonthViewPagerAdapter(MonthView.OnDateChangeListener listener, int[] dotColors) {
         mListener = listener;
+        mDotColors = dotColors;
         int mid = ITEM_COUNT / 2;
         long todayMillis = CalendarUtils.monthFirstDay(CalendarUtils.today());
         for (int i = 0; i < getCount(); i++) {
-            mMonths.add(CalendarUtils.addMonths(todayMillis, i - mid));
+            mMonths[i] = CalendarUtils.addMonths(todayMillis, i - mid);
             mViews.add(null);
-            mCursors.add(null);
         }
     }
 
     @Override
     public Object instantiateItem(ViewGroup container, int position) {
-        MonthView view = new MonthView(container.getContext());
-        view.setLayoutParams(new ViewPager.LayoutParams());
+        MonthView view = mViewPool.acquire();
+        if (view == null) {
+            view = new MonthView(container.getContext());
+            view.setLayoutParams(new ViewPager.LayoutParams());
+            view.setCalendarColors(mDotColors);
+        }
         view.setOnDateChangeListener(mListener);
         mViews.set(position, view);
         container.addView(view);
@@ -52,8 +65,13 @@ class MonthViewPagerAdapter extends PagerAdapter {
 
     @Override
     public void destroyItem(ViewGroup container, int position, Object object) {
-        ((MonthView) object).setOnDateChangeListener(null);
-        container.removeView((View) object);
+        MonthView view = (MonthView) object;
+        view.setOnDateChangeListener(null);
+        container.removeView(view);
+        if (mViews.get(position) == view) {
+            mViews.set(position, null);
+        }
+        mViewPool.release(view);
     }
 
     @Override
@@ -69,7 +87,7 @@ class MonthViewPagerAdapter extends PagerAdapter {
     @Override
     public Parcelable saveState() {
         Bundle bundle = new Bundle();
-        bundle.putLong(STATE_FIRST_MONTH_MILLIS, mMonths.get(0));
+        bundle.putLong(STATE_FIRST_MONTH_MILLIS, mMonths[0]);
         bundle.putLong(STATE_SELECTED_DAY_MILLIS, mSelectedDayMillis);
         return bundle;
     }
@@ -83,7 +101,7 @@ class MonthViewPagerAdapter extends PagerAdapter {
         mSelectedDayMillis = savedState.getLong(STATE_SELECTED_DAY_MILLIS);
         long firstMonthMillis = savedState.getLong(STATE_FIRST_MONTH_MILLIS);
         for (int i = 0; i < getCount(); i++) {
-            mMonths.set(i, CalendarUtils.addMonths(firstMonthMillis, i));
+            mMonths[i] = CalendarUtils.addMonths(firstMonthMillis, i);
         }
     }
 
@@ -101,31 +119,18 @@ class MonthViewPagerAdapter extends PagerAdapter {
     }
 
     long getMonth(int position) {
-        return mMonths.get(position);
+        return mMonths[position];
     }
 
     void shiftLeft() {
-        for (int i = 0; i < getCount() - 2; i++) {
-            mMonths.add(CalendarUtils.addMonths(mMonths.remove(0), getCount()));
-        }
-
-        for (int i = 0; i < getCount(); i++) {
-            swapCursor(i, null, null);
-        }
+        shiftMonths(getCount() - 2);
         for (int i = 0; i <= 2; i++) {
             bind(i);
         }
     }
 
     void shiftRight() {
-        for (int i = 0; i < getCount() - 2; i++) {
-            mMonths.add(0, CalendarUtils.addMonths(mMonths.remove(getCount() - 1), -getCount()));
-            mCursors.add(0, mCursors.remove(getCount() - 1));
-        }
-        for (int i = 0; i < getCount(); i++) {
-            swapCursor(i, null, null);
-        }
-
+        shiftMonths(2 - getCount());
         for (int i = 0; i <= 2; i++) {
             bind(getCount() - 1 - i);
         }
@@ -133,66 +138,84 @@ class MonthViewPagerAdapter extends PagerAdapter {
 
     void bind(int position) {
         if (mViews.get(position) != null) {
-            mViews.get(position).setCalendar(mMonths.get(position));
+            mViews.get(position).setCalendar(mMonths[position]);
         }
-        bindCursor(position);
+        bindEvents(position);
         bindSelectedDay(position);
     }
 
-    EventCursor getCursor(int position) {
-        return mCursors.get(position);
+    boolean isLoaded(int position) {
+        return mMonthEvents.get(monthKey(mMonths[position])) != null;
     }
 
-    void swapCursor(long monthMillis, EventCursor cursor,
-                    ContentObserver contentObserver) {
-        for (int i = 0; i < mMonths.size(); i++) {
-            if (CalendarUtils.sameMonth(monthMillis, mMonths.get(i))) {
-                swapCursor(i, cursor, contentObserver);
+    /**
+     * Binds events of the month containing {@code monthMillis} from the index, and
+     * caches them once the index holds the whole month.
+     */
+    void bindEvents(long monthMillis) {
+        long startTimeMillis = CalendarUtils.monthFirstDay(monthMillis);
+        MonthEvents events = MonthEvents.query(monthMillis, mDotColors.length);
+        if (EventIndex.getInstance().covers(startTimeMillis,
+                CalendarUtils.addDays(startTimeMillis, CalendarUtils.monthSize(monthMillis)))) {
+            mMonthEvents.put(monthKey(monthMillis), events);
+        }
+        for (int i = 0; i < mMonths.length; i++) {
+            if (CalendarUtils.sameMonth(monthMillis, mMonths[i])) {
+                if (mViews.get(i) != null) {
+                    mViews.get(i).setEvents(events);
+                }
                 break;
             }
         }
     }
 
-    void deactivate() {
-        for (EventCursor cursor : mCursors) {
-            deactivate(cursor);
+    /**
+     * Marks event days from saved presence bits on pages whose months are not loaded
+     * yet, or stops doing so if {@code presence} is null.
+     */
+    void setDayPresence(DayPresence presence) {
+        mDayPresence = presence;
+        for (int i = 0; i < getCount(); i++) {
+            bindEvents(i);
         }
     }
 
+    void deactivate() {
+        invalidate();
+    }
+
     private void bindSelectedDay(int position) {
         if (mViews.get(position) != null) {
             mViews.get(position).setSelectedDay(mSelectedDayMillis);
         }
     }
 
-    private void swapCursor(int position, EventCursor cursor,
-                            ContentObserver contentObserver) {
-        deactivate(mCursors.get(position));
-        if (cursor != null) {
-            cursor.registerContentObserver(contentObserver);
-            mObservers.put(cursor, contentObserver);
-        }
-        mCursors.set(position, cursor);
-        bindCursor(position);
+    /**
+     * Drops cached and saved event days. Pages keep showing theirs until their months
+     * load again.
+     */
+    void invalidate() {
+        mMonthEvents.evictAll();
+        mDayPresence = null;
     }
 
-    void invalidate() {
-        for (int i = 0; i < mCursors.size(); i++) {
-            swapCursor(i, null, null);
+    private void shiftMonths(int months) {
+        for (int i = 0; i < getCount(); i++) {
+            mMonths[i] = CalendarUtils.addMonths(mMonths[i], months);
         }
     }
 
-    private void bindCursor(int position) {
-        if (mCursors.get(position) != null && mViews.get(position) != null) {
-            mViews.get(position).swapCursor(mCursors.get(position));
+    private void bindEvents(int position) {
+        MonthEvents events = mMonthEvents.get(monthKey(mMonths[position]));
+        if (events == null) {
+            events = MonthEvents.fromPresence(mDayPresence, mMonths[position]);
+        }
+        if (events != null && mViews.get(position) != null) {
+            mViews.get(position).setEvents(events);
         }
     }
 
-    private void deactivate(EventCursor cursor) {
-        if (cursor != null) {
-            cursor.unregisterContentObserver(mObservers.get(cursor));
-            mObservers.remove(cursor);
-            cursor.close();
-        }
+    private static int monthKey(long monthMillis) {
+        return EpochDay.monthIndex(EpochDay.fromMillis(monthMillis));
     }
 }
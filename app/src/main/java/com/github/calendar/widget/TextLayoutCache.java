@@ -0,0 +1,94 @@
+package com.github.calendar.widget;
+
+import android.os.AsyncTask;
+import android.support.v4.util.LruCache;
+import android.text.Layout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+/**
+ * Text layouts of one kind of agenda row text, built on a background thread as soon as a
+ * day's events arrive and cached by event id and width, so that binding a row does not
+ * lay out text.
+ */
+class TextLayoutCache {
+    private static final int MAX_SIZE = 256;
+
+    private final LruCache<Long, Entry> mLayouts = new LruCache<>(MAX_SIZE);
+    private TextPaint mPaint;
+    private int mWidth;
+
+    /**
+     * Sets the paint and width of the text views, dropping layouts made for other ones.
+     */
+    void setMetrics(TextPaint paint, int width) {
+        if (width <= 0 || width == mWidth && mPaint != null &&
+                mPaint.getTextSize() == paint.getTextSize()) {
+            return;
+        }
+        mPaint = new TextPaint(paint);
+        mWidth = width;
+        mLayouts.evictAll();
+    }
+
+    /**
+     * Returns the layout of {@code text} for event {@code id}, or null if none is ready.
+     */
+    Layout get(long id, String text) {
+        Entry entry = mLayouts.get(id);
+        if (entry == null || entry.width != mWidth || !TextUtils.equals(entry.text, text)) {
+            return null;
+        }
+        return entry.layout;
+    }
+
+    /**
+     * Starts laying out the texts of events {@code ids} that have no layout yet.
+     */
+    void precompute(long[] ids, String[] texts) {
+        if (mPaint == null) {
+            return;
+        }
+        int count = 0;
+        final long[] pendingIds = new long[ids.length];
+        final String[] pendingTexts = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            if (!TextUtils.isEmpty(texts[i]) && get(ids[i], texts[i]) == null) {
+                pendingIds[count] = ids[i];
+                pendingTexts[count] = texts[i];
+                count++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        final int size = count, width = mWidth;
+        // layouts keep their paint, so each batch gets its own that no other thread uses,
+        // and views only read it once the whole batch is published
+        final TextPaint paint = new TextPaint(mPaint);
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Layout[] layouts = new Layout[size];
+                for (int i = 0; i < size; i++) {
+                    layouts[i] = TextLayoutView.makeLayout(pendingTexts[i], paint, width);
+                }
+                for (int i = 0; i < size; i++) {
+                    mLayouts.put(pendingIds[i], new Entry(pendingTexts[i], width, layouts[i]));
+                }
+            }
+        });
+    }
+
+    private static class Entry {
+        final String text;
+        final int width;
+        final Layout layout;
+
+        Entry(String text, int width, Layout layout) {
+            this.text = text;
+            this.width = width;
+            this.layout = layout;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.github.calendar.widget;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+/**
+ * Vertically centered text drawn from a {@link Layout}, which can be built ahead of time
+ * off the main thread for the paint and width given by {@link #getPaint()} and
+ * {@link #getTextWidth()}. Reads {@code android:textSize} and {@code android:textColor}.
+ */
+public class TextLayoutView extends View {
+
+    private final TextPaint mPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final ColorStateList mTextColor;
+    private CharSequence mText = "";
+    private Layout mLayout;
+
+    public TextLayoutView(Context context) {
+        this(context, null);
+    }
+
+    public TextLayoutView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public TextLayoutView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        TypedArray ta = context.getTheme().obtainStyledAttributes(attrs, new int[]{
+                android.R.attr.textSize,
+                android.R.attr.textColor
+        }, defStyleAttr, 0);
+        mPaint.setTextSize(ta.getDimensionPixelSize(0, 0));
+        mTextColor = ta.getColorStateList(1);
+        ta.recycle();
+        mPaint.density = getResources().getDisplayMetrics().density;
+        if (mTextColor != null) {
+            mPaint.setColor(mTextColor.getDefaultColor());
+        }
+    }
+
+    static Layout makeLayout(CharSequence text, TextPaint paint, int width) {
+        return new StaticLayout(text, paint, Math.max(width, 0),
+                Layout.Alignment.ALIGN_NORMAL, 1f, 0f, true);
+    }
+
+    /**
+     * Returns the paint of this view, which is only used on the main thread. Copy it
+     * before use on another thread.
+     */
+    TextPaint getPaint() {
+        return mPaint;
+    }
+
+    /**
+     * Returns the width available to text, or 0 before the view is laid out.
+     */
+    int getTextWidth() {
+        return Math.max(getWidth() - getPaddingLeft() - getPaddingRight(), 0);
+    }
+
+    void setText(CharSequence text) {
+        mText = text == null ? "" : text;
+        mLayout = null;
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * Shows a layout built with {@link #makeLayout(CharSequence, TextPaint, int)}. The view
+     * is only measured again if the layout does not fit its current size.
+     */
+    void setLayout(Layout layout) {
+        Layout oldLayout = mLayout;
+        mText = layout.getText();
+        mLayout = layout;
+        updateTextColor();
+        if (oldLayout == null || oldLayout.getHeight() != layout.getHeight() ||
+                layout.getWidth() != getTextWidth()) {
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        if (MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED) {
+            width = (int) Math.ceil(Layout.getDesiredWidth(mText, mPaint)) +
+                    getPaddingLeft() + getPaddingRight();
+        }
+        int textWidth = Math.max(width - getPaddingLeft() - getPaddingRight(), 0);
+        if (mLayout == null || mLayout.getWidth() != textWidth) {
+            mLayout = makeLayout(mText, mPaint, textWidth);
+        }
+        int height = Math.max(mLayout.getHeight() + getPaddingTop() + getPaddingBottom(),
+                getSuggestedMinimumHeight());
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    public void onPopulateAccessibilityEvent(AccessibilityEvent event) {
+        super.onPopulateAccessibilityEvent(event);
+        if (mText.length() > 0) {
+            event.getText().add(mText);
+        }
+    }
+
+    @Override
+    public void onInitializeAccessibilityNodeInfo(AccessibilityNodeInfo info) {
+        super.onInitializeAccessibilityNodeInfo(info);
+        // read like a TextView, the text is only drawn
+        info.setText(mText);
+    }
+
+    @Override
+    protected void drawableStateChanged() {
+        super.drawableStateChanged();
+        if (mTextColor != null && mTextColor.isStateful()) {
+            updateTextColor();
+            invalidate();
+        }
+    }
+
+    // layouts made ahead of time keep their paint, which is never written here, so one in
+    // another color than the current state's is made again with the paint of this view
+    private void updateTextColor() {
+        if (mTextColor == null) {
+            return;
+        }
+        int color = mTextColor.getColorForState(getDrawableState(), mPaint.getColor());
+        mPaint.setColor(color);
+        if (mLayout != null && mLayout.getPaint() != mPaint &&
+                mLayout.getPaint().getColor() != color) {
+            mLayout = makeLayout(mText, mPaint, mLayout.getWidth());
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mLayout == null) {
+            return;
+        }
+        int contentHeight = getHeight() - getPaddingTop() - getPaddingBottom();
+        canvas.save();
+        canvas.translate(getPaddingLeft(),
+                getPaddingTop() + Math.max((contentHeight - mLayout.getHeight()) / 2, 0));
+        mLayout.draw(canvas);
+        canvas.restore();
+    }
+}
@@ -0,0 +1,180 @@
+package com.github.calendar.widget;
+
+import java.util.Arrays;
+
+import com.github.calendar.EpochDay;
+import com.github.calendar.content.EventSnapshot;
+
+/**
+ * Placement of the timed events of a week on a minute axis, with overlapping events
+ * side by side in columns. Each event is split into one box per day it covers, ordered
+ * by day and start. Plain Java and safe to compute off the main thread.
+ */
+class WeekLayout {
+    static final int DAYS = 7;
+    static final int MINUTES_PER_DAY = 24 * 60;
+    static final WeekLayout EMPTY = new WeekLayout(0);
+    private static final int INDEX_BITS = 28;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    final int size;
+    // snapshot row, day of week and minutes of the day of each box
+    final int[] rows;
+    final int[] days;
+    final int[] tops;
+    final int[] bottoms;
+    // column of each box out of the columns of its overlapping group
+    final int[] columns;
+    final int[] columnCounts;
+
+    private WeekLayout(int size) {
+        this.size = size;
+        rows = new int[size];
+        days = new int[size];
+        tops = new int[size];
+        bottoms = new int[size];
+        columns = new int[size];
+        columnCounts = new int[size];
+    }
+
+    /**
+     * Lays out the timed events of {@code events} in the 7 days from {@code firstDay}, an
+     * epoch day. Boxes are at least {@code minMinutes} tall so that they fit a line of
+     * text, and overlap others by the height they are drawn with.
+     */
+    static WeekLayout compute(EventSnapshot events, int firstDay, int minMinutes) {
+        long[] dayStarts = new long[DAYS + 1];
+        for (int i = 0; i <= DAYS; i++) {
+            dayStarts[i] = EpochDay.toMillis(firstDay + i);
+        }
+        int count = 0;
+        int[] segmentRows = new int[events.size()], segmentDays = new int[events.size()],
+                segmentTops = new int[events.size()], segmentBottoms = new int[events.size()];
+        for (int row = 0; row < events.size(); row++) {
+            if (events.isAllDay(row)) {
+                continue;
+            }
+            long start = events.getStartTimeMillis(row),
+                    end = Math.max(events.getEndTimeMillis(row), start);
+            int first = Math.max(EpochDay.fromMillis(start) - firstDay, 0),
+                    last = Math.min(EpochDay.fromMillis(Math.max(end - 1, start)) - firstDay,
+                            DAYS - 1);
+            for (int day = first; day <= last; day++) {
+                if (count == segmentRows.length) {
+                    int capacity = count * 2;
+                    segmentRows = Arrays.copyOf(segmentRows, capacity);
+                    segmentDays = Arrays.copyOf(segmentDays, capacity);
+                    segmentTops = Arrays.copyOf(segmentTops, capacity);
+                    segmentBottoms = Arrays.copyOf(segmentBottoms, capacity);
+                }
+                // wall clock minutes, which is what the hour axis shows even when a
+                // daylight saving transition makes the day shorter or longer
+                int top = start <= dayStarts[day] ? 0 : EpochDay.minuteOfDay(start),
+                        bottom = end >= dayStarts[day + 1] ?
+                                MINUTES_PER_DAY : EpochDay.minuteOfDay(end);
+                segmentRows[count] = row;
+                segmentDays[count] = day;
+                segmentTops[count] = top;
+                segmentBottoms[count] = Math.min(Math.max(bottom, top + minMinutes),
+                        MINUTES_PER_DAY);
+                count++;
+            }
+        }
+        // by day, then start, then longest first, without boxing
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = (long) (segmentDays[i] * MINUTES_PER_DAY + segmentTops[i]) <<
+                    (INDEX_BITS + 11) |
+                    (long) (MINUTES_PER_DAY - segmentBottoms[i]) << INDEX_BITS | i;
+        }
+        Arrays.sort(keys);
+        WeekLayout layout = new WeekLayout(count);
+        for (int i = 0; i < count; i++) {
+            int segment = (int) (keys[i] & INDEX_MASK);
+            layout.rows[i] = segmentRows[segment];
+            layout.days[i] = segmentDays[segment];
+            layout.tops[i] = segmentTops[segment];
+            layout.bottoms[i] = segmentBottoms[segment];
+        }
+        layout.assignColumns();
+        return layout;
+    }
+
+    // sweeps boxes by start: ended boxes free their columns, a new box takes the lowest
+    // free one, and a group of overlapping boxes ends when no box is left open
+    private void assignColumns() {
+        LongHeap open = new LongHeap(), free = new LongHeap();
+        int groupStart = 0, nextColumn = 0;
+        for (int i = 0; i < size; i++) {
+            long start = days[i] * MINUTES_PER_DAY + tops[i],
+                    end = days[i] * MINUTES_PER_DAY + bottoms[i];
+            while (!open.isEmpty() && open.peek() >>> 32 <= start) {
+                free.add(open.poll() & 0xffffffffL);
+            }
+            if (open.isEmpty()) {
+                setColumnCount(groupStart, i, nextColumn);
+                groupStart = i;
+                nextColumn = 0;
+                free.clear();
+            }
+            int column = free.isEmpty() ? nextColumn++ : (int) free.poll();
+            columns[i] = column;
+            open.add(end << 32 | column);
+        }
+        setColumnCount(groupStart, size, nextColumn);
+    }
+
+    private void setColumnCount(int from, int to, int columnCount) {
+        Arrays.fill(columnCounts, from, to, columnCount);
+    }
+
+    /**
+     * Binary min heap of longs.
+     */
+    private static class LongHeap {
+        private long[] mValues = new long[16];
+        private int mSize;
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        long peek() {
+            return mValues[0];
+        }
+
+        void add(long value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            int i = mSize++;
+            while (i > 0 && mValues[(i - 1) / 2] > value) {
+                mValues[i] = mValues[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            mValues[i] = value;
+        }
+
+        long poll() {
+            long result = mValues[0], value = mValues[--mSize];
+            int i = 0;
+            while (2 * i + 1 < mSize) {
+                int child = 2 * i + 1;
+                if (child + 1 < mSize && mValues[child + 1] < mValues[child]) {
+                    child++;
+                }
+                if (mValues[child] >= value) {
+                    break;
+                }
+                mValues[i] = mValues[child];
+                i = child;
+            }
+            mValues[i] = value;
+            return result;
+        }
+
+        void clear() {
+            mSize = 0;
+        }
+    }
+}
@@ -0,0 +1,728 @@
+package com.github.calendar.widget;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.view.GestureDetectorCompat;
+import android.support.v4.view.ViewCompat;
+import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+import android.support.v4.widget.ExploreByTouchHelper;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.SoundEffectConstants;
+import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
+import android.widget.OverScroller;
+
+import java.text.DateFormatSymbols;
+import java.util.Calendar;
+import java.util.List;
+
+import com.github.calendar.CalendarUtils;
+import com.github.calendar.EpochDay;
+import com.github.calendar.NewEventActivity;
+import com.github.calendar.R;
+import com.github.calendar.ViewUtils;
+import com.github.calendar.content.EventIndex;
+import com.github.calendar.content.EventSnapshot;
+
+/**
+ * Timeline of the week containing the selected day, with timed events placed on an hour
+ * axis and overlapping events side by side. Events are laid out off the main thread by
+ * {@link WeekLayout}, everything is drawn by this view. Scrolls vertically through the
+ * day, and swipes horizontally to the previous or next week.
+ */
+public class WeekView extends View {
+    private static final String STATE_VIEW = "state:view";
+    private static final String STATE_SCROLL_Y = "state:scrollY";
+    private static final int NO_DAY = Integer.MIN_VALUE;
+    private static final int NO_BOX = -1;
+    private static final int DEFAULT_SCROLL_HOUR = 8;
+    private static final int MIN_EVENT_MINUTES = 20;
+    private static final int HOURS = 24;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+    private final EventIndex.OnInvalidateListener mInvalidateListener =
+            new EventIndex.OnInvalidateListener() {
+                @Override
+                public void onInvalidate() {
+                    loadEvents();
+                }
+            };
+    private final GestureDetector.SimpleOnGestureListener mGestureListener =
+            new GestureDetector.SimpleOnGestureListener() {
+                @Override
+                public boolean onDown(MotionEvent e) {
+                    mScroller.forceFinished(true);
+                    return true;
+                }
+
+                @Override
+                public boolean onScroll(MotionEvent e1, MotionEvent e2,
+                                        float distanceX, float distanceY) {
+                    scrollTimelineTo(mScrollY + Math.round(distanceY));
+                    return true;
+                }
+
+                @Override
+                public boolean onFling(MotionEvent e1, MotionEvent e2,
+                                       float velocityX, float velocityY) {
+                    if (Math.abs(velocityX) > Math.abs(velocityY) * 2) {
+                        // horizontal swipes page through weeks
+                        moveSelectedDay(velocityX < 0 ? WeekLayout.DAYS : -WeekLayout.DAYS);
+                    } else {
+                        mScroller.fling(0, mScrollY, 0, Math.round(-velocityY), 0, 0,
+                                0, getMaxScrollY());
+                        ViewCompat.postInvalidateOnAnimation(WeekView.this);
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean onSingleTapUp(MotionEvent e) {
+                    onTap(e.getX(), e.getY());
+                    return true;
+                }
+            };
+    private final WeekTouchHelper mTouchHelper;
+    private final OverScroller mScroller;
+    private final GestureDetectorCompat mGestureDetector;
+    private final String[] mWeekdays;
+    private final String[] mHourLabels = new String[HOURS];
+    private final String[] mDayLabels = new String[WeekLayout.DAYS];
+    private final Paint mLinePaint = new Paint();
+    private final Paint mBackgroundPaint = new Paint();
+    private final Paint mEventPaint = new Paint();
+    private final Paint mAccentPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mWeekdayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mDayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mSelectedDayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mHourPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final TextPaint mTitlePaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final int[] mColors;
+    private final int[] mDotColors;
+    private final int mHourHeight;
+    private final int mHeaderHeight;
+    private final int mPadding;
+    private final int mBarWidth;
+    private final float mCircleRadius;
+    private int mGutterWidth;
+    private int mScrollY = -1;
+    private int mFirstDay = NO_DAY;
+    private int mSelectedDay = NO_DAY;
+    private WeekAdapter mAdapter;
+    private OnDateChangeListener mListener;
+    private EventSnapshot mEvents = EventSnapshot.EMPTY;
+    private WeekLayout mLayout = WeekLayout.EMPTY;
+    private CharSequence[] mTitles = new CharSequence[0];
+    private LayoutTask mLayoutTask;
+
+    public interface OnDateChangeListener {
+        void onSelectedDayChange(long dayMillis);
+    }
+
+    public static abstract class WeekAdapter {
+        private WeekView mWeekView;
+
+        void setWeekView(WeekView weekView) {
+            mWeekView = weekView;
+        }
+
+        protected void loadEvents(long startTimeMillis, long endTimeMillis) {
+        }
+
+        protected void retainEvents(long startTimeMillis, long endTimeMillis) {
+        }
+
+        public final void bindEvents(long startTimeMillis, long endTimeMillis) {
+            if (mWeekView != null) {
+                mWeekView.bindEvents(startTimeMillis, endTimeMillis);
+            }
+        }
+    }
+
+    public WeekView(Context context) {
+        this(context, null);
+    }
+
+    public WeekView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public WeekView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        mScroller = new OverScroller(context);
+        mGestureDetector = new GestureDetectorCompat(context, mGestureListener);
+        mTouchHelper = new WeekTouchHelper(this);
+        ViewCompat.setAccessibilityDelegate(this, mTouchHelper);
+        mWeekdays = DateFormatSymbols.getInstance().getShortWeekdays();
+        mColors = ViewUtils.getCalendarColors(context);
+        mDotColors = ViewUtils.getCalendarDotColors(context);
+        TypedArray ta = context.getTheme().obtainStyledAttributes(new int[]{
+                R.attr.colorAccent,
+                R.attr.listPreferredItemHeight,
+                android.R.attr.textColorPrimaryInverse,
+                android.R.attr.colorBackground
+        });
+        mAccentPaint.setColor(ta.getColor(0,
+                ContextCompat.getColor(context, R.color.greenA700)));
+        mHeaderHeight = ta.getDimensionPixelSize(1, 0);
+        mSelectedDayPaint.setColor(ta.getColor(2, 0));
+        mBackgroundPaint.setColor(ta.getColor(3, 0));
+        ta.recycle();
+        initTextPaint(mWeekdayPaint, R.style.TextAppearance_AppCompat_Caption);
+        initTextPaint(mHourPaint, R.style.TextAppearance_AppCompat_Caption);
+        initTextPaint(mDayPaint, R.style.TextAppearance_AppCompat_Body1);
+        initTextPaint(mTitlePaint, R.style.TextAppearance_AppCompat_Caption);
+        mTitlePaint.setColor(mDayPaint.getColor());
+        mTitlePaint.setTextAlign(Paint.Align.LEFT);
+        mHourPaint.setTextAlign(Paint.Align.RIGHT);
+        mSelectedDayPaint.setTextSize(mDayPaint.getTextSize());
+        mSelectedDayPaint.setTextAlign(Paint.Align.CENTER);
+        mLinePaint.setColor(ContextCompat.getColor(context, R.color.colorDivider));
+        mLinePaint.setStrokeWidth(getResources().getDimensionPixelSize(R.dimen.divider_size));
+        mHourHeight = getResources().getDimensionPixelSize(R.dimen.week_hour_height);
+        mPadding = getResources().getDimensionPixelSize(R.dimen.padding_text);
+        mBarWidth = getResources().getDimensionPixelSize(R.dimen.dot_size) / 2;
+        mCircleRadius = mDayPaint.getTextSize() / 2 +
+                getResources().getDimension(R.dimen.padding_text);
+        setUpHourLabels();
+        setSelectedDay(CalendarUtils.today());
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        EventIndex.getInstance().addOnInvalidateListener(mInvalidateListener);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        EventIndex.getInstance().removeOnInvalidateListener(mInvalidateListener);
+        cancelLayout();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        Bundle outState = new Bundle();
+        outState.putParcelable(STATE_VIEW, super.onSaveInstanceState());
+        outState.putInt(STATE_SCROLL_Y, mScrollY);
+        return outState;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        Bundle savedState = (Bundle) state;
+        mScrollY = savedState.getInt(STATE_SCROLL_Y, -1);
+        super.onRestoreInstanceState(savedState.getParcelable(STATE_VIEW));
+    }
+
+    public void setAdapter(WeekAdapter adapter) {
+        if (mAdapter != null) {
+            mAdapter.setWeekView(null);
+        }
+        mAdapter = adapter;
+        if (mAdapter != null) {
+            mAdapter.setWeekView(this);
+            loadEvents();
+        } else {
+            cancelLayout();
+        }
+    }
+
+    public void setOnDateChangeListener(OnDateChangeListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Shows the week containing {@code dayMillis}, loading its events if the week changed.
+     */
+    public void setSelectedDay(long dayMillis) {
+        if (CalendarUtils.isNotTime(dayMillis)) {
+            return;
+        }
+        int day = EpochDay.fromMillis(dayMillis);
+        if (day == mSelectedDay) {
+            return;
+        }
+        int oldDay = mSelectedDay;
+        mSelectedDay = day;
+        int firstDay = day - (EpochDay.dayOfWeek(day) - Calendar.SUNDAY);
+        if (firstDay != mFirstDay) {
+            mFirstDay = firstDay;
+            for (int i = 0; i < WeekLayout.DAYS; i++) {
+                mDayLabels[i] = String.valueOf(EpochDay.dayOfMonth(firstDay + i));
+            }
+            cancelLayout();
+            mEvents = EventSnapshot.EMPTY;
+            mLayout = WeekLayout.EMPTY;
+            mTitles = new CharSequence[0];
+            loadEvents();
+            mTouchHelper.invalidateRoot();
+        } else {
+            mTouchHelper.invalidateVirtualView(oldDay - mFirstDay);
+            mTouchHelper.invalidateVirtualView(day - mFirstDay);
+        }
+        invalidate();
+    }
+
+    public void reset() {
+        mScroller.forceFinished(true);
+        mScrollY = -1;
+        setSelectedDay(CalendarUtils.today());
+        scrollTimelineTo(getDefaultScrollY());
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int height = mHeaderHeight + HOURS * mHourHeight;
+        setMeasuredDimension(getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec),
+                resolveSize(Math.max(height, getSuggestedMinimumHeight()), heightMeasureSpec));
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        scrollTimelineTo(mScrollY < 0 ? getDefaultScrollY() : mScrollY);
+        if (w != oldw && mEvents.size() > 0) {
+            // titles are shortened to fit the day width
+            startLayout(mEvents);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        return mGestureDetector.onTouchEvent(event) || super.onTouchEvent(event);
+    }
+
+    @Override
+    public boolean performClick() {
+        // days and events are clicked through clickDay() and clickBox(), from touches or
+        // accessibility actions
+        return super.performClick();
+    }
+
+    @Override
+    protected boolean dispatchHoverEvent(MotionEvent event) {
+        return mTouchHelper.dispatchHoverEvent(event) || super.dispatchHoverEvent(event);
+    }
+
+    @Override
+    public void computeScroll() {
+        if (mScroller.computeScrollOffset()) {
+            scrollTimelineTo(mScroller.getCurrY());
+            ViewCompat.postInvalidateOnAnimation(this);
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        float dayWidth = getDayWidth();
+        int width = getWidth(), bottom = getHeight();
+        canvas.save();
+        canvas.clipRect(0, mHeaderHeight, width, bottom);
+        canvas.translate(0, mHeaderHeight - mScrollY);
+        for (int hour = 0; hour < HOURS; hour++) {
+            int y = hour * mHourHeight;
+            canvas.drawLine(mGutterWidth, y, width, y, mLinePaint);
+            if (hour > 0) {
+                canvas.drawText(mHourLabels[hour], mGutterWidth - mPadding,
+                        y - mHourPaint.ascent() / 2, mHourPaint);
+            }
+        }
+        for (int i = 0; i < WeekLayout.DAYS; i++) {
+            float x = mGutterWidth + i * dayWidth;
+            canvas.drawLine(x, 0, x, HOURS * mHourHeight, mLinePaint);
+        }
+        drawEvents(canvas, dayWidth, mScrollY, mScrollY + bottom - mHeaderHeight);
+        canvas.restore();
+        drawHeader(canvas, dayWidth);
+    }
+
+    private void drawEvents(Canvas canvas, float dayWidth, int visibleTop, int visibleBottom) {
+        WeekLayout layout = mLayout;
+        for (int i = 0; i < layout.size; i++) {
+            float top = toY(layout.tops[i]), bottom = toY(layout.bottoms[i]);
+            if (bottom < visibleTop || top > visibleBottom) {
+                continue;
+            }
+            float boxWidth = dayWidth / layout.columnCounts[i],
+                    left = mGutterWidth + layout.days[i] * dayWidth +
+                            layout.columns[i] * boxWidth,
+                    right = left + boxWidth - mBarWidth;
+            int slot = (int) (Math.abs(mEvents.getCalendarId(layout.rows[i])) % mColors.length);
+            mEventPaint.setColor(mColors[slot]);
+            canvas.drawRect(left + mBarWidth, top + mBarWidth, right, bottom, mEventPaint);
+            mEventPaint.setColor(mDotColors[slot % mDotColors.length]);
+            canvas.drawRect(left + mBarWidth, top + mBarWidth, left + mBarWidth * 2, bottom,
+                    mEventPaint);
+            if (i < mTitles.length && mTitles[i] != null) {
+                canvas.drawText(mTitles[i], 0, mTitles[i].length(), left + mBarWidth * 2 +
+                        mPadding, top + mBarWidth - mTitlePaint.ascent(), mTitlePaint);
+            }
+        }
+    }
+
+    private void drawHeader(Canvas canvas, float dayWidth) {
+        canvas.drawRect(0, 0, getWidth(), mHeaderHeight, mBackgroundPaint);
+        float weekdayBaseline = mHeaderHeight / 3f -
+                (mWeekdayPaint.ascent() + mWeekdayPaint.descent()) / 2,
+                dayCenter = mHeaderHeight * 2 / 3f,
+                dayBaseline = dayCenter - (mDayPaint.ascent() + mDayPaint.descent()) / 2;
+        for (int i = 0; i < WeekLayout.DAYS; i++) {
+            float x = mGutterWidth + (i + 0.5f) * dayWidth;
+            canvas.drawText(mWeekdays[i + Calendar.SUNDAY], x, weekdayBaseline, mWeekdayPaint);
+            if (mFirstDay + i == mSelectedDay) {
+                canvas.drawCircle(x, dayCenter, mCircleRadius, mAccentPaint);
+                canvas.drawText(mDayLabels[i], x, dayBaseline, mSelectedDayPaint);
+            } else {
+                canvas.drawText(mDayLabels[i], x, dayBaseline, mDayPaint);
+            }
+        }
+        canvas.drawLine(0, mHeaderHeight, getWidth(), mHeaderHeight, mLinePaint);
+    }
+
+    void bindEvents(long startTimeMillis, long endTimeMillis) {
+        long weekStartMillis = EpochDay.toMillis(mFirstDay),
+                weekEndMillis = EpochDay.toMillis(mFirstDay + WeekLayout.DAYS);
+        if (startTimeMillis >= weekEndMillis || endTimeMillis <= weekStartMillis) {
+            return;
+        }
+        startLayout(EventIndex.getInstance().query(weekStartMillis, weekEndMillis));
+    }
+
+    private void loadEvents() {
+        if (mAdapter == null || mFirstDay == NO_DAY) {
+            return;
+        }
+        long startTimeMillis = EpochDay.toMillis(mFirstDay),
+                endTimeMillis = EpochDay.toMillis(mFirstDay + WeekLayout.DAYS);
+        mAdapter.retainEvents(startTimeMillis, endTimeMillis);
+        mAdapter.loadEvents(startTimeMillis, endTimeMillis);
+    }
+
+    private void startLayout(EventSnapshot events) {
+        cancelLayout();
+        if (events.size() == 0) {
+            onLayoutComplete(events, WeekLayout.EMPTY, new CharSequence[0]);
+            return;
+        }
+        // titles start after the color bar and keep clear of the next box
+        mLayoutTask = new LayoutTask(this, events, mFirstDay, new TextPaint(mTitlePaint),
+                getDayWidth(), mBarWidth * 3 + mPadding * 2);
+        mLayoutTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void cancelLayout() {
+        if (mLayoutTask != null) {
+            mLayoutTask.cancel(false);
+            mLayoutTask = null;
+        }
+    }
+
+    void onLayoutComplete(EventSnapshot events, WeekLayout layout, CharSequence[] titles) {
+        mLayoutTask = null;
+        mEvents = events;
+        mLayout = layout;
+        mTitles = titles;
+        invalidate();
+        mTouchHelper.invalidateRoot();
+    }
+
+    private void onTap(float x, float y) {
+        int day = getDayAt(x);
+        if (day == NO_DAY) {
+            return;
+        }
+        playSoundEffect(SoundEffectConstants.CLICK);
+        performClick();
+        int box = getBoxAt(x, y);
+        if (box != NO_BOX) {
+            clickBox(box);
+        } else {
+            clickDay(day);
+        }
+    }
+
+    private void clickDay(int day) {
+        moveSelectedDay(mFirstDay + day - mSelectedDay);
+        mTouchHelper.sendEventForVirtualView(day, AccessibilityEvent.TYPE_VIEW_CLICKED);
+    }
+
+    private void clickBox(int box) {
+        editEvent(mLayout.rows[box]);
+        mTouchHelper.sendEventForVirtualView(WeekLayout.DAYS + box,
+                AccessibilityEvent.TYPE_VIEW_CLICKED);
+    }
+
+    private int getDayAt(float x) {
+        float dayWidth = getDayWidth();
+        if (x < mGutterWidth || dayWidth <= 0) {
+            return NO_DAY;
+        }
+        return Math.min((int) ((x - mGutterWidth) / dayWidth), WeekLayout.DAYS - 1);
+    }
+
+    private int getBoxAt(float x, float y) {
+        if (y < mHeaderHeight) {
+            return NO_BOX;
+        }
+        float dayWidth = getDayWidth(), timelineY = y - mHeaderHeight + mScrollY;
+        WeekLayout layout = mLayout;
+        for (int i = 0; i < layout.size; i++) {
+            float left = getBoxLeft(layout, i, dayWidth);
+            if (x >= left && x < left + dayWidth / layout.columnCounts[i] &&
+                    timelineY >= toY(layout.tops[i]) && timelineY < toY(layout.bottoms[i])) {
+                return i;
+            }
+        }
+        return NO_BOX;
+    }
+
+    private float getBoxLeft(WeekLayout layout, int box, float dayWidth) {
+        return mGutterWidth + layout.days[box] * dayWidth +
+                layout.columns[box] * dayWidth / layout.columnCounts[box];
+    }
+
+    private void getDayBounds(int day, Rect bounds) {
+        float dayWidth = getDayWidth();
+        bounds.set(Math.round(mGutterWidth + day * dayWidth), 0,
+                Math.round(mGutterWidth + (day + 1) * dayWidth), mHeaderHeight);
+    }
+
+    // in view coordinates, clipped to the visible timeline and empty if scrolled away
+    private void getBoxBounds(int box, Rect bounds) {
+        WeekLayout layout = mLayout;
+        float dayWidth = getDayWidth(), left = getBoxLeft(layout, box, dayWidth);
+        int offset = mHeaderHeight - mScrollY;
+        bounds.set(Math.round(left), Math.round(toY(layout.tops[box])) + offset,
+                Math.round(left + dayWidth / layout.columnCounts[box]),
+                Math.round(toY(layout.bottoms[box])) + offset);
+        if (!bounds.intersect(0, mHeaderHeight, getWidth(), getHeight())) {
+            bounds.setEmpty();
+        }
+    }
+
+    private void moveSelectedDay(int days) {
+        if (days == 0 || mSelectedDay == NO_DAY) {
+            return;
+        }
+        long dayMillis = EpochDay.toMillis(mSelectedDay + days);
+        setSelectedDay(dayMillis);
+        if (mListener != null) {
+            mListener.onSelectedDayChange(dayMillis);
+        }
+    }
+
+    private void editEvent(int row) {
+        EventEditView.Event event = new EventEditView.Event.Builder()
+                .id(mEvents.getId(row))
+                .calendarId(mEvents.getCalendarId(row))
+                .title(mEvents.getTitle(row))
+                .start(mEvents.getStartTimeMillis(row))
+                .end(mEvents.getEndTimeMillis(row))
+                .allDay(mEvents.isAllDay(row))
+                .build();
+        NewEventActivity.edit(getContext(), event, mEvents.isRecurring(row));
+    }
+
+    private void scrollTimelineTo(int y) {
+        int scrollY = Math.max(Math.min(y, getMaxScrollY()), 0);
+        if (scrollY != mScrollY) {
+            mScrollY = scrollY;
+            invalidate();
+            if (mLayout.size > 0) {
+                mTouchHelper.invalidateRoot();
+            }
+        }
+    }
+
+    private int getDefaultScrollY() {
+        return DEFAULT_SCROLL_HOUR * mHourHeight;
+    }
+
+    private int getMaxScrollY() {
+        return Math.max(HOURS * mHourHeight - (getHeight() - mHeaderHeight), 0);
+    }
+
+    private float getDayWidth() {
+        return (getWidth() - mGutterWidth) / (float) WeekLayout.DAYS;
+    }
+
+    private float toY(int minutes) {
+        return minutes * mHourHeight / 60f;
+    }
+
+    private void setUpHourLabels() {
+        // labels from a day without a daylight saving transition, where hours do not shift
+        int day = EpochDay.fromMillis(System.currentTimeMillis());
+        while (EpochDay.toMillis(day + 1) - EpochDay.toMillis(day) != HOURS * HOUR_MILLIS) {
+            day++;
+        }
+        long dayStartMillis = EpochDay.toMillis(day);
+        float maxWidth = 0;
+        for (int hour = 0; hour < HOURS; hour++) {
+            mHourLabels[hour] = CalendarUtils.toTimeString(getContext(),
+                    dayStartMillis + hour * HOUR_MILLIS);
+            maxWidth = Math.max(maxWidth, mHourPaint.measureText(mHourLabels[hour]));
+        }
+        mGutterWidth = (int) Math.ceil(maxWidth) + mPadding * 2;
+    }
+
+    private void initTextPaint(Paint paint, int textAppearance) {
+        TypedArray ta = getContext().obtainStyledAttributes(textAppearance, new int[]{
+                android.R.attr.textSize,
+                android.R.attr.textColor
+        });
+        paint.setTextSize(ta.getDimensionPixelSize(0, 0));
+        paint.setColor(ta.getColor(1, 0));
+        ta.recycle();
+        paint.setTextAlign(Paint.Align.CENTER);
+    }
+
+    static class LayoutTask extends AsyncTask<Void, Void, WeekLayout> {
+        private final WeekView mView;
+        private final EventSnapshot mEvents;
+        private final int mFirstDay;
+        private final TextPaint mPaint;
+        private final float mDayWidth;
+        private final float mTitleInset;
+        private CharSequence[] mTitles;
+
+        LayoutTask(WeekView view, EventSnapshot events, int firstDay, TextPaint paint,
+                   float dayWidth, float titleInset) {
+            mView = view;
+            mEvents = events;
+            mFirstDay = firstDay;
+            mPaint = paint;
+            mDayWidth = dayWidth;
+            mTitleInset = titleInset;
+        }
+
+        @Override
+        protected WeekLayout doInBackground(Void... params) {
+            WeekLayout layout = WeekLayout.compute(mEvents, mFirstDay, MIN_EVENT_MINUTES);
+            mTitles = new CharSequence[layout.size];
+            for (int i = 0; i < layout.size && !isCancelled(); i++) {
+                String title = mEvents.getTitle(layout.rows[i]);
+                float width = mDayWidth / layout.columnCounts[i] - mTitleInset;
+                if (!TextUtils.isEmpty(title) && width > 0) {
+                    mTitles[i] = TextUtils.ellipsize(title, mPaint, width,
+                            TextUtils.TruncateAt.END);
+                }
+            }
+            return layout;
+        }
+
+        @Override
+        protected void onPostExecute(WeekLayout layout) {
+            if (mView.mLayoutTask == this) {
+                mView.onLayoutComplete(mEvents, layout, mTitles);
+            }
+        }
+    }
+
+    /**
+     * Exposes the days of the header as virtual views 0 to 6, followed by the event
+     * boxes that are on screen.
+     */
+    private class WeekTouchHelper extends ExploreByTouchHelper {
+        private final Rect mBounds = new Rect();
+
+        WeekTouchHelper(View host) {
+            super(host);
+        }
+
+        @Override
+        protected int getVirtualViewAt(float x, float y) {
+            int box = getBoxAt(x, y);
+            if (box != NO_BOX) {
+                return WeekLayout.DAYS + box;
+            }
+            int day = getDayAt(x);
+            return day == NO_DAY || y >= mHeaderHeight ? INVALID_ID : day;
+        }
+
+        @Override
+        protected void getVisibleVirtualViews(List<Integer> virtualViewIds) {
+            for (int day = 0; day < WeekLayout.DAYS; day++) {
+                virtualViewIds.add(day);
+            }
+            for (int box = 0; box < mLayout.size; box++) {
+                getBoxBounds(box, mBounds);
+                if (!mBounds.isEmpty()) {
+                    virtualViewIds.add(WeekLayout.DAYS + box);
+                }
+            }
+        }
+
+        @Override
+        protected void onPopulateEventForVirtualView(int virtualViewId,
+                                                     AccessibilityEvent event) {
+            event.setContentDescription(getDescription(virtualViewId));
+        }
+
+        @Override
+        protected void onPopulateNodeForVirtualView(int virtualViewId,
+                                                    AccessibilityNodeInfoCompat node) {
+            if (virtualViewId < WeekLayout.DAYS) {
+                getDayBounds(virtualViewId, mBounds);
+                node.setSelected(mFirstDay + virtualViewId == mSelectedDay);
+            } else if (virtualViewId - WeekLayout.DAYS < mLayout.size) {
+                getBoxBounds(virtualViewId - WeekLayout.DAYS, mBounds);
+            } else {
+                // the layout changed since the id was handed out
+                mBounds.setEmpty();
+            }
+            node.setBoundsInParent(mBounds);
+            node.setContentDescription(getDescription(virtualViewId));
+            node.addAction(AccessibilityNodeInfoCompat.ACTION_CLICK);
+        }
+
+        @Override
+        protected boolean onPerformActionForVirtualView(int virtualViewId, int action,
+                                                        Bundle arguments) {
+            if (action != AccessibilityNodeInfoCompat.ACTION_CLICK) {
+                return false;
+            }
+            if (virtualViewId < WeekLayout.DAYS) {
+                clickDay(virtualViewId);
+                return true;
+            }
+            if (virtualViewId - WeekLayout.DAYS < mLayout.size) {
+                clickBox(virtualViewId - WeekLayout.DAYS);
+                return true;
+            }
+            return false;
+        }
+
+        private String getDescription(int virtualViewId) {
+            if (virtualViewId < WeekLayout.DAYS) {
+                return CalendarUtils.toDayString(getContext(),
+                        EpochDay.toMillis(mFirstDay + virtualViewId));
+            }
+            int box = virtualViewId - WeekLayout.DAYS;
+            if (box >= mLayout.size) {
+                return "";
+            }
+            int row = mLayout.rows[box];
+            String time = DateUtils.formatDateRange(getContext(),
+                    mEvents.getStartTimeMillis(row), mEvents.getEndTimeMillis(row),
+                    DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_SHOW_DATE |
+                            DateUtils.FORMAT_SHOW_WEEKDAY);
+            String title = mEvents.getTitle(row);
+            return TextUtils.isEmpty(title) ? time : title + ", " + time;
+        }
+    }
+}
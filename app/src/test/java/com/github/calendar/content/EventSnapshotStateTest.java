@@ -0,0 +1,102 @@
+package com.github.calendar.content;
+
+import com.github.calendar.EpochDay;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventSnapshotStateTest {
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+    @Test
+    public void decodesWrittenEvents() throws IOException {
+        EventSnapshotState.Saved saved = EventSnapshotState.decode(ByteBuffer.wrap(encode()));
+        assertEquals(0, saved.startTimeMillis);
+        assertEquals(24 * HOUR_MILLIS, saved.endTimeMillis);
+        assertEquals(2, saved.events.size());
+        assertEquals(HOUR_MILLIS, saved.events.getStartTimeMillis(0));
+    }
+
+    @Test
+    public void decodesPresenceOfDays() throws IOException {
+        int day = EpochDay.of(2016, 5, 1);
+        long start = EpochDay.toMillis(day);
+        EventSnapshot events = new TestEvents(2)
+                .add(start + HOUR_MILLIS, start + 2 * HOUR_MILLIS, false)
+                .add(EpochDay.toMillis(day + 2), EpochDay.toMillis(day + 3), true)
+                .build();
+        DayPresence presence = EventSnapshotState.decodePresence(ByteBuffer.wrap(
+                encode(start, EpochDay.toMillis(day + 4), events)));
+        assertTrue(presence.covers(day, 4));
+        assertFalse(presence.covers(day, 5));
+        assertTrue(presence.hasEvents(day));
+        assertFalse(presence.hasEvents(day + 1));
+        assertTrue(presence.hasEvents(day + 2));
+        assertFalse(presence.hasEvents(day + 3));
+    }
+
+    @Test
+    public void rejectsCorruptedPresenceCount() throws IOException {
+        byte[] bytes = encode();
+        ByteBuffer.wrap(bytes).putInt(titleCountOffset() - 8 - 4, Integer.MAX_VALUE);
+        assertNull(EventSnapshotState.decodePresence(ByteBuffer.wrap(bytes)));
+        assertNull(EventSnapshotState.decode(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    public void rejectsCorruptedTitleCount() throws IOException {
+        byte[] bytes = encode();
+        ByteBuffer.wrap(bytes).putInt(titleCountOffset(), Integer.MAX_VALUE);
+        assertNull(EventSnapshotState.decode(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    public void rejectsCorruptedRowCount() throws IOException {
+        byte[] bytes = encode();
+        // two titles of 7 bytes before the row count
+        ByteBuffer.wrap(bytes).putInt(titleCountOffset() + 4 + (4 + 7) * 2,
+                Integer.MAX_VALUE);
+        assertNull(EventSnapshotState.decode(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    public void rejectsTruncatedSnapshot() throws IOException {
+        byte[] bytes = encode();
+        assertNull(EventSnapshotState.decode(
+                ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 1))));
+    }
+
+    private static byte[] encode() throws IOException {
+        return encode(0, 24 * HOUR_MILLIS, new TestEvents(2)
+                .add(HOUR_MILLIS, 2 * HOUR_MILLIS, false)
+                .add(3 * HOUR_MILLIS, 4 * HOUR_MILLIS, false)
+                .build());
+    }
+
+    private static byte[] encode(long startTimeMillis, long endTimeMillis,
+                                 EventSnapshot events) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        EventSnapshotState.write(out, TimeZone.getDefault().getID(), startTimeMillis,
+                endTimeMillis, events);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    // after the magic, version, time zone, range and the presence of its one day
+    private static int titleCountOffset() {
+        return 4 + 4 + 4 + TimeZone.getDefault().getID().length() + 8 + 8 + 4 + 4 + 8;
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.calendar.content;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MeasuredCursorLoaderTest {
+
+    @Test
+    public void measuresUtf8Bytes() {
+        assertEquals(0, MeasuredCursorLoader.utf8Length(""));
+        assertEquals(5, MeasuredCursorLoader.utf8Length("Lunch"));
+        assertEquals(6, MeasuredCursorLoader.utf8Length("Caf\u00e9s"));
+        assertEquals(6, MeasuredCursorLoader.utf8Length("\u4f1a\u8bae"));
+        assertEquals(4, MeasuredCursorLoader.utf8Length("\ud83c\udf82"));
+        // an unpaired surrogate is encoded as a replacement of three bytes
+        assertEquals(3, MeasuredCursorLoader.utf8Length("\ud83c"));
+    }
+
+    @Test
+    public void estimatesSnapshotWindow() {
+        EventSnapshot events = new EventSnapshot(3);
+        events.add(1, 1, "Caf\u00e9", 0, 1, false, false);
+        events.add(2, 1, null, 0, 1, false, false);
+        events.add(3, 1, "Gym", 0, 1, false, false);
+        // a 4 byte row slot and 12 bytes per field, plus terminated titles
+        assertEquals(3 * (4 + 8 * 12) + 6 + 4,
+                MeasuredCursorLoader.windowBytes(events, 8));
+    }
+
+    @Test
+    public void estimatesEmptySnapshot() {
+        assertEquals(0, MeasuredCursorLoader.windowBytes(EventSnapshot.EMPTY, 8));
+        assertEquals(0, MeasuredCursorLoader.windowBytes(null));
+    }
+}
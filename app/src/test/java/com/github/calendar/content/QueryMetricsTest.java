@@ -0,0 +1,110 @@
+package com.github.calendar.content;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryMetricsTest {
+
+    private QueryMetrics mMetrics;
+
+    @Before
+    public void setUp() {
+        mMetrics = new QueryMetrics();
+    }
+
+    @Test
+    public void tracksQueueDepth() {
+        mMetrics.onQueryStarted(QueryMetrics.CALLER_AGENDA);
+        mMetrics.onQueryStarted(QueryMetrics.CALLER_AGENDA);
+        mMetrics.onQueryCancelled(QueryMetrics.CALLER_AGENDA);
+        mMetrics.onQueryStarted(QueryMetrics.CALLER_AGENDA);
+        mMetrics.onQueryFinished(QueryMetrics.CALLER_AGENDA, 10, 5, 100);
+        QueryMetrics.Stats stats = mMetrics.getStats(QueryMetrics.CALLER_AGENDA);
+        assertEquals(3, stats.started);
+        assertEquals(1, stats.cancelled);
+        assertEquals(1, stats.finished);
+        assertEquals(1, stats.queueDepth);
+        assertEquals(2, stats.maxQueueDepth);
+    }
+
+    @Test
+    public void neverReportsNegativeQueueDepth() {
+        mMetrics.onQueryCancelled(QueryMetrics.CALLER_MONTH);
+        mMetrics.onQueryFinished(QueryMetrics.CALLER_MONTH, 1, 0, 0);
+        assertEquals(0, mMetrics.getStats(QueryMetrics.CALLER_MONTH).queueDepth);
+    }
+
+    @Test
+    public void separatesCallers() {
+        mMetrics.onQueryStarted(QueryMetrics.CALLER_AGENDA);
+        mMetrics.onIndexHit(QueryMetrics.CALLER_MONTH);
+        mMetrics.onQueryCoalesced(QueryMetrics.CALLER_WEEK);
+        assertEquals(1, mMetrics.getStats(QueryMetrics.CALLER_AGENDA).started);
+        assertEquals(0, mMetrics.getStats(QueryMetrics.CALLER_AGENDA).indexHits);
+        assertEquals(1, mMetrics.getStats(QueryMetrics.CALLER_MONTH).indexHits);
+        assertEquals(1, mMetrics.getStats(QueryMetrics.CALLER_WEEK).coalesced);
+        assertEquals(0, mMetrics.getStats(QueryMetrics.CALLER_WEEK).started);
+    }
+
+    @Test
+    public void sumsRowsAndWindowBytes() {
+        mMetrics.onQueryFinished(QueryMetrics.CALLER_AGENDA, 10, 5, 100);
+        mMetrics.onQueryFinished(QueryMetrics.CALLER_AGENDA, 30, 7, 300);
+        QueryMetrics.Stats stats = mMetrics.getStats(QueryMetrics.CALLER_AGENDA);
+        assertEquals(12, stats.rows);
+        assertEquals(400, stats.windowBytes);
+        assertEquals(300, stats.maxWindowBytes);
+        assertEquals(20, stats.averageLatencyMillis());
+    }
+
+    @Test
+    public void bucketsLatencies() {
+        mMetrics.onQueryFinished(QueryMetrics.CALLER_AGENDA, 0, 0, 0);
+        mMetrics.onQueryFinished(QueryMetrics.CALLER_AGENDA, 4, 0, 0);
+        mMetrics.onQueryFinished(QueryMetrics.CALLER_AGENDA, 5, 0, 0);
+        mMetrics.onQueryFinished(QueryMetrics.CALLER_AGENDA, 5000, 0, 0);
+        long[] histogram = mMetrics.getStats(QueryMetrics.CALLER_AGENDA).latencyHistogram;
+        assertEquals(2, histogram[0]);
+        assertEquals(1, histogram[1]);
+        assertEquals(1, histogram[histogram.length - 1]);
+    }
+
+    @Test
+    public void reportsPercentilesAsBucketBounds() {
+        for (int i = 0; i < 9; i++) {
+            mMetrics.onQueryFinished(QueryMetrics.CALLER_AGENDA, 3, 0, 0);
+        }
+        mMetrics.onQueryFinished(QueryMetrics.CALLER_AGENDA, 100, 0, 0);
+        QueryMetrics.Stats stats = mMetrics.getStats(QueryMetrics.CALLER_AGENDA);
+        assertEquals(4, stats.latencyPercentileMillis(50));
+        assertEquals(4, stats.latencyPercentileMillis(90));
+        assertEquals(128, stats.latencyPercentileMillis(99));
+        mMetrics.onQueryFinished(QueryMetrics.CALLER_AGENDA, 10000, 0, 0);
+        assertEquals(Long.MAX_VALUE,
+                mMetrics.getStats(QueryMetrics.CALLER_AGENDA).latencyPercentileMillis(100));
+    }
+
+    @Test
+    public void reportsNoPercentileWithoutQueries() {
+        assertEquals(0, mMetrics.getStats(QueryMetrics.CALLER_AGENDA)
+                .latencyPercentileMillis(50));
+    }
+
+    @Test
+    public void returnsCopies() {
+        mMetrics.onQueryFinished(QueryMetrics.CALLER_AGENDA, 1, 1, 1);
+        QueryMetrics.Stats stats = mMetrics.getStats(QueryMetrics.CALLER_AGENDA);
+        mMetrics.onQueryFinished(QueryMetrics.CALLER_AGENDA, 1, 1, 1);
+        assertEquals(1, stats.finished);
+        assertEquals(1, stats.latencyHistogram[0]);
+    }
+
+    @Test
+    public void resetsCounters() {
+        mMetrics.onQueryStarted(QueryMetrics.CALLER_AGENDA);
+        mMetrics.reset();
+        assertEquals(0, mMetrics.getStats(QueryMetrics.CALLER_AGENDA).started);
+    }
+}
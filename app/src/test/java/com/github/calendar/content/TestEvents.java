@@ -0,0 +1,22 @@
+package com.github.calendar.content;
+
+/**
+ * Builds {@link EventSnapshot} instances for tests outside of this package.
+ */
+public class TestEvents {
+
+    private final EventSnapshot mEvents;
+
+    public TestEvents(int capacity) {
+        mEvents = new EventSnapshot(capacity);
+    }
+
+    public TestEvents add(long start, long end, boolean allDay) {
+        mEvents.add(mEvents.size(), 1, "Event " + mEvents.size(), start, end, allDay, false);
+        return this;
+    }
+
+    public EventSnapshot build() {
+        return mEvents.sortedByStart();
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.calendar.widget;
+
+import com.github.calendar.EpochDay;
+import com.github.calendar.content.TestEvents;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WeekLayoutTest {
+
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+    private static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+
+    private TimeZone mDefaultTimeZone;
+
+    @Before
+    public void setUp() {
+        mDefaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        EpochDay.invalidateTimeZone();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultTimeZone);
+        EpochDay.invalidateTimeZone();
+    }
+
+    @Test
+    public void placesEventsByWallClockOnDaylightSavingDays() {
+        // 2016-03-13 is 23 hours long and 2016-11-06 is 25 hours long in New York
+        int springDay = EpochDay.of(2016, 2, 13), fallDay = EpochDay.of(2016, 10, 6);
+        assertWallClockPlacement(springDay);
+        assertWallClockPlacement(fallDay);
+    }
+
+    @Test
+    public void splitsEventsAcrossDays() {
+        int firstDay = EpochDay.of(2016, 2, 13);
+        long start = EpochDay.toMillis(firstDay) + 22 * HOUR_MILLIS;
+        WeekLayout layout = WeekLayout.compute(new TestEvents(1)
+                .add(start, start + 4 * HOUR_MILLIS, false)
+                .build(), firstDay, 0);
+        assertEquals(2, layout.size);
+        // the day starts at midnight standard time, 22 hours later is 23:00 daylight time
+        assertEquals(23 * 60, layout.tops[0]);
+        assertEquals(WeekLayout.MINUTES_PER_DAY, layout.bottoms[0]);
+        assertEquals(1, layout.days[1]);
+        assertEquals(0, layout.tops[1]);
+        assertEquals(3 * 60, layout.bottoms[1]);
+    }
+
+    @Test
+    public void skipsAllDayEvents() {
+        int firstDay = EpochDay.of(2016, 5, 5);
+        long start = EpochDay.toMillis(firstDay);
+        WeekLayout layout = WeekLayout.compute(new TestEvents(1)
+                .add(start, EpochDay.toMillis(firstDay + 1), true)
+                .build(), firstDay, 0);
+        assertEquals(0, layout.size);
+    }
+
+    @Test
+    public void keepsOverlappingBoxesApart() {
+        Random random = new Random(42);
+        int firstDay = EpochDay.of(2016, 2, 10);
+        long base = EpochDay.toMillis(firstDay);
+        for (int round = 0; round < 200; round++) {
+            int count = random.nextInt(300);
+            TestEvents events = new TestEvents(count);
+            for (int i = 0; i < count; i++) {
+                long start = base - 24 * HOUR_MILLIS + random.nextInt(9 * 24 * 60) * MINUTE_MILLIS;
+                events.add(start, start + random.nextInt(600) * MINUTE_MILLIS,
+                        random.nextInt(20) == 0);
+            }
+            assertNoOverlaps(WeekLayout.compute(events.build(), firstDay, random.nextInt(60)));
+        }
+    }
+
+    private static void assertWallClockPlacement(int day) {
+        // 10:00 wall clock is 9 or 11 elapsed hours after midnight on transition days
+        long start = EpochDay.toMillis(day + 1) - 14 * HOUR_MILLIS;
+        WeekLayout layout = WeekLayout.compute(new TestEvents(1)
+                .add(start, start + HOUR_MILLIS, false)
+                .build(), day, 0);
+        assertEquals(1, layout.size);
+        assertEquals(0, layout.days[0]);
+        assertEquals(10 * 60, layout.tops[0]);
+        assertEquals(11 * 60, layout.bottoms[0]);
+    }
+
+    private static void assertNoOverlaps(WeekLayout layout) {
+        for (int i = 0; i < layout.size; i++) {
+            assertTrue(layout.columns[i] < layout.columnCounts[i]);
+            assertTrue(layout.tops[i] <= layout.bottoms[i]);
+            if (i > 0) {
+                assertTrue(layout.days[i - 1] < layout.days[i] ||
+                        layout.days[i - 1] == layout.days[i] &&
+                                layout.tops[i - 1] <= layout.tops[i]);
+            }
+            for (int j = i + 1; j < layout.size && layout.days[j] == layout.days[i]; j++) {
+                if (layout.tops[j] < layout.bottoms[i] && layout.tops[i] < layout.bottoms[j]) {
+                    assertTrue(layout.columns[i] != layout.columns[j]);
+                    assertEquals(layout.columnCounts[i], layout.columnCounts[j]);
+                }
+            }
+        }
+    }
+}